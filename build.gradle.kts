@@ -35,6 +35,22 @@ tasks.test {
     testLogging.showStandardStreams = true
 }
 
+val benchmark: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+tasks.named<JavaCompile>(benchmark.compileJavaTaskName) {
+    options.release.set(8)
+}
+
+// ./gradlew benchmark -Pbenchmark=EncodeBenchmark
+tasks.register<JavaExec>("benchmark") {
+    description = "Runs the benchmark in src/benchmark selected by the 'benchmark' property."
+    classpath = benchmark.runtimeClasspath
+    mainClass.set("kala.ansi." + (project.findProperty("benchmark") ?: "EncodeBenchmark"))
+}
+
 tasks.withType<Javadoc>().configureEach {
     (options as StandardJavadocDocletOptions).also {
         it.encoding("UTF-8")
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A minimal benchmark harness for the benchmarks in this source set.
+ *
+ * <p>Each case is warmed up and then timed in several rounds, and the best round is reported.
+ * It does not replace a full harness such as JMH, but it is enough to compare two implementations
+ * on the same machine. The number of rounds can be set with the {@code kala.ansi.benchmark.rounds} system property.
+ */
+final class Bench {
+    private Bench() {
+    }
+
+    private static final int ROUNDS = Integer.getInteger("kala.ansi.benchmark.rounds", 40);
+    private static final int WARMUP_ROUNDS = 5;
+
+    /**
+     * The minimum duration of a round in nanoseconds.
+     */
+    private static final long ROUND_NANOS = 20_000_000L;
+
+    private static volatile long sink;
+
+    @FunctionalInterface
+    interface Case {
+        /**
+         * Runs the case once, and returns a value that depends on the result so it cannot be eliminated.
+         */
+        long run();
+    }
+
+    /**
+     * Returns the best time of one run of the case in nanoseconds.
+     */
+    static double measure(Case body) {
+        long result = 0L;
+
+        // Find the number of runs that takes at least ROUND_NANOS
+        int runs = 1;
+        while (true) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                result += body.run();
+            }
+            if (System.nanoTime() - start >= ROUND_NANOS || runs >= (1 << 30)) {
+                break;
+            }
+            runs *= 2;
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                result += body.run();
+            }
+            final long time = System.nanoTime() - start;
+            if (round >= 0) {
+                best = Math.min(best, time);
+            }
+        }
+        sink += result;
+        return (double) best / runs;
+    }
+
+    /**
+     * Returns the number of bytes allocated by one run of the case, or {@code -1} if the JVM cannot measure it.
+     */
+    static long allocated(Case body) {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1L;
+        }
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        final long thread = Thread.currentThread().getId();
+
+        final int runs = 100;
+        long result = 0L;
+        for (int i = 0; i < runs; i++) {
+            result += body.run();
+        }
+        final long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < runs; i++) {
+            result += body.run();
+        }
+        final long after = threads.getThreadAllocatedBytes(thread);
+        sink += result;
+        return (after - before) / runs;
+    }
+
+    static String format(double nanos) {
+        if (nanos < 1e3) {
+            return String.format("%8.1f ns", nanos);
+        }
+        if (nanos < 1e6) {
+            return String.format("%8.1f us", nanos / 1e3);
+        }
+        return String.format("%8.2f ms", nanos / 1e6);
+    }
+}
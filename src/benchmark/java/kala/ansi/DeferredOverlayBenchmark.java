@@ -0,0 +1,76 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+/**
+ * Compares a chain of {@link AnsiString#overlay(AnsiString.Attribute, int, int)} calls with the same chain
+ * recorded by {@link AnsiString#deferOverlay()} and applied in a single pass.
+ */
+public final class DeferredOverlayBenchmark {
+    private DeferredOverlayBenchmark() {
+    }
+
+    private static final AnsiString.Attribute[] ATTRIBUTES = {
+            AnsiString.Color.Red, AnsiString.Bold.On, AnsiString.Back.Blue, AnsiString.Underlined.On
+    };
+
+    public static void main(String[] args) {
+        for (int length : new int[]{100, 10_000}) {
+            final StringBuilder plain = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                plain.append((char) ('a' + i % 26));
+            }
+            final AnsiString string = AnsiString.Color.Green.overlay(plain.toString());
+
+            for (int depth = 1; depth <= 8; depth++) {
+                run(string, depth);
+            }
+        }
+    }
+
+    private static void run(AnsiString string, int depth) {
+        if (!eager(string, depth).equals(deferred(string, depth))) {
+            throw new AssertionError("length " + string.length() + ", depth " + depth);
+        }
+        final Bench.Case eagerCase = () -> eager(string, depth).state0(0);
+        final Bench.Case deferredCase = () -> deferred(string, depth).state0(0);
+        System.out.printf("%6d chars, depth %d   eager %s %8d B   deferred %s %8d B%n", string.length(), depth,
+                Bench.format(Bench.measure(eagerCase)), Bench.allocated(eagerCase),
+                Bench.format(Bench.measure(deferredCase)), Bench.allocated(deferredCase));
+    }
+
+    /**
+     * Overlays {@code ATTRIBUTES[d % 4]} over a range that shrinks by a sixteenth of the string on each side
+     * for the {@code d}-th overlay.
+     */
+    private static AnsiString eager(AnsiString string, int depth) {
+        final int length = string.length();
+        AnsiString res = string;
+        for (int d = 0; d < depth; d++) {
+            res = res.overlay(ATTRIBUTES[d % ATTRIBUTES.length], d * length / 16, length - d * length / 16);
+        }
+        return res;
+    }
+
+    private static AnsiString deferred(AnsiString string, int depth) {
+        final int length = string.length();
+        DeferredOverlay res = string.deferOverlay();
+        for (int d = 0; d < depth; d++) {
+            res = res.overlay(ATTRIBUTES[d % ATTRIBUTES.length], d * length / 16, length - d * length / 16);
+        }
+        return res.toAnsiString();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+/**
+ * Compares {@link AnsiString#getEncoded()} with the former encoder, which appended one character at a time
+ * and looked up the escape sequences of every transition, including the attributes of true colors.
+ */
+public final class EncodeBenchmark {
+    private EncodeBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        run("short (32 chars, 3 runs)", AnsiString.parse(
+                "12345678901" + AnsiString.Color.Red.overlay("ERROR") + " " + AnsiString.Bold.On.overlay("connection lost")));
+        run("long (100k chars, runs of 2000)", styled(100_000, 2000));
+        run("heavily styled (100k chars, runs of 2)", styled(100_000, 2));
+        run("gradient (2k chars, 2k true colors)", gradient(2000));
+        run("gradient (10k chars, 10k true colors)", gradient(10_000));
+    }
+
+    private static final AnsiString.Attribute[] STYLES = {
+            AnsiString.Color.Red, AnsiString.Attribute.of(AnsiString.Color.Green, AnsiString.Bold.On),
+            AnsiString.Back.Blue, AnsiString.Underlined.On, AnsiString.Attribute.empty()
+    };
+
+    private static AnsiString styled(int length, int runLength) {
+        final AnsiStringBuilder builder = new AnsiStringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26), STYLES[(i / runLength) % STYLES.length].transform(0L));
+        }
+        return builder.build();
+    }
+
+    private static AnsiString gradient(int length) {
+        final AnsiStringBuilder builder = new AnsiStringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            final AnsiString.Attribute color = AnsiString.Color.True(i % 256, (i / 256) % 256, 128);
+            builder.append((char) ('a' + i % 26), color.transform(0L));
+        }
+        return builder.build();
+    }
+
+    private static void run(String name, AnsiString string) {
+        if (!encodePerChar(string).equals(fresh(string).getEncoded())) {
+            throw new AssertionError(name);
+        }
+        final Bench.Case oldCase = () -> encodePerChar(string).length();
+        final Bench.Case newCase = () -> fresh(string).getEncoded().length();
+        System.out.printf("%-40s old %s %9d B   new %s %9d B%n", name,
+                Bench.format(Bench.measure(oldCase)), Bench.allocated(oldCase),
+                Bench.format(Bench.measure(newCase)), Bench.allocated(newCase));
+    }
+
+    /**
+     * Returns a copy of the {@code string} that does not share its cached encoding.
+     */
+    private static AnsiString fresh(AnsiString string) {
+        return AnsiString.of0(string.plain, string.states, string.statesFrom);
+    }
+
+    private static String encodePerChar(AnsiString string) {
+        final String plain = string.plain;
+        final int length = plain.length();
+        final StringBuilder builder = new StringBuilder(length * 2);
+
+        long currentState = 0L;
+        for (int i = 0; i < length; i++) {
+            final long state = string.state0(i);
+            if (state != currentState) {
+                emitPerCategory(currentState, state, builder);
+                currentState = state;
+            }
+            builder.append(plain.charAt(i));
+        }
+        emitPerCategory(currentState, 0L, builder);
+        return builder.toString();
+    }
+
+    private static void emitPerCategory(long currentState, long nextState, StringBuilder output) {
+        long currentState2 = currentState;
+        if ((currentState & ~nextState & AnsiString.Bold.category.mask()) != 0) {
+            output.append(AnsiString.RESET);
+            currentState2 = 0L;
+        }
+        for (Category category : Category.categories()) {
+            final long mask = category.mask();
+            if ((currentState2 & mask) != (nextState & mask)) {
+                output.append(category.lookupEscape(nextState & mask));
+            }
+        }
+    }
+}
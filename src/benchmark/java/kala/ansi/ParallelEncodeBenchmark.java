@@ -0,0 +1,89 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how {@link AnsiString#getEncodedParallel(ForkJoinPool)} scales with the parallelism of the pool,
+ * compared with {@link AnsiString#getEncoded()}.
+ *
+ * <p>The parallelism goes up to the number of available processors, or to the value of
+ * the {@code kala.ansi.benchmark.maxParallelism} system property.
+ */
+public final class ParallelEncodeBenchmark {
+    private ParallelEncodeBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        final int maxParallelism = Integer.getInteger("kala.ansi.benchmark.maxParallelism",
+                Runtime.getRuntime().availableProcessors());
+        System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+
+        run("log (4M chars, a line per run)", log(4_000_000), maxParallelism);
+        run("heavily styled (4M chars, runs of 2)", styled(4_000_000), maxParallelism);
+    }
+
+    private static AnsiString log(int length) {
+        final String[] colors = {"\u001b[31m", "", "\u001b[0m", "\u001b[1m\u001b[34m"};
+        final StringBuilder raw = new StringBuilder(length + length / 4);
+        for (int i = 0; raw.length() < length; i++) {
+            raw.append(colors[i % colors.length]).append("[main] INFO line ").append(i).append('\n');
+        }
+        return AnsiString.parse(raw);
+    }
+
+    private static AnsiString styled(int length) {
+        final AnsiString.Attribute[] styles = {
+                AnsiString.Color.Red, AnsiString.Attribute.of(AnsiString.Color.Green, AnsiString.Bold.On),
+                AnsiString.Back.Blue, AnsiString.Underlined.On, AnsiString.Attribute.empty()
+        };
+        final AnsiStringBuilder builder = new AnsiStringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26), styles[(i / 2) % styles.length].transform(0L));
+        }
+        return builder.build();
+    }
+
+    private static void run(String name, AnsiString string, int maxParallelism) {
+        final String expected = fresh(string).getEncoded();
+        final double sequential = Bench.measure(() -> fresh(string).getEncoded().length());
+        System.out.printf("%-40s sequential   %s%n", name, Bench.format(sequential));
+
+        for (int parallelism = 1; ; parallelism = Math.min(parallelism * 2, maxParallelism)) {
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                if (!expected.equals(fresh(string).getEncodedParallel(pool))) {
+                    throw new AssertionError(name + ", parallelism " + parallelism);
+                }
+                final double nanos = Bench.measure(() -> fresh(string).getEncodedParallel(pool).length());
+                System.out.printf("%-40s parallelism %2d %s  %.2fx%n", "", parallelism, Bench.format(nanos), sequential / nanos);
+            } finally {
+                pool.shutdown();
+            }
+            if (parallelism >= maxParallelism) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the {@code string} that does not share its cached encoding.
+     */
+    private static AnsiString fresh(AnsiString string) {
+        return AnsiString.of0(string.plain, string.states, string.statesFrom);
+    }
+}
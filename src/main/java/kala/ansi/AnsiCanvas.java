@@ -0,0 +1,476 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A fixed-size grid of styled cells for composing text in two dimensions.
+ *
+ * <p>The cells are stored as two parallel arrays, one of code points and one of states in the same packed format
+ * as {@link AnsiString}, so drawing a string copies its states as is.
+ * A code point that occupies two columns (see {@link AnsiString#columnWidth()}) occupies two cells,
+ * the second of which is a continuation cell. Overwriting either half of such a code point replaces
+ * the other half with a space.
+ *
+ * <p>All drawing operations are clipped to the canvas, the coordinates may be negative or out of range.
+ * Code points that occupy no columns, such as combining marks and control characters, are not drawn.
+ *
+ * <p>This class is not thread-safe.
+ */
+public final class AnsiCanvas {
+    /**
+     * The code point of a continuation cell.
+     */
+    private static final int CONTINUATION = -1;
+
+    private final int rows;
+    private final int columns;
+    private final int[] codePoints;
+    private final long[] states;
+
+    /**
+     * Constructs a canvas filled with spaces without states.
+     *
+     * @param rows    the number of rows
+     * @param columns the number of columns
+     * @throws IllegalArgumentException if {@code rows} or {@code columns} is negative
+     */
+    public AnsiCanvas(int rows, int columns) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("rows(" + rows + ") < 0");
+        }
+        if (columns < 0) {
+            throw new IllegalArgumentException("columns(" + columns + ") < 0");
+        }
+        final long size = (long) rows * columns;
+        if (size > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Required size exceeds implementation limit");
+        }
+
+        this.rows = rows;
+        this.columns = columns;
+        this.codePoints = new int[(int) size];
+        this.states = new long[(int) size];
+        Arrays.fill(codePoints, ' ');
+    }
+
+    /**
+     * Returns the number of rows of this canvas.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns of this canvas.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Fills this canvas with spaces without states.
+     *
+     * @return this canvas
+     */
+    public AnsiCanvas clear() {
+        Arrays.fill(codePoints, ' ');
+        Arrays.fill(states, 0L);
+        return this;
+    }
+
+    /**
+     * Writes a cell, the caller ensures that the cell and its continuation are inside the canvas.
+     */
+    private void set(int row, int column, int codePoint, int width, long state) {
+        final int index = row * columns + column;
+
+        // Break the wide code points that are partially overwritten
+        if (codePoints[index] == CONTINUATION) {
+            codePoints[index - 1] = ' ';
+        }
+        if (column + width < columns && codePoints[index + width] == CONTINUATION) {
+            codePoints[index + width] = ' ';
+        }
+
+        codePoints[index] = codePoint;
+        states[index] = state;
+        if (width == 2) {
+            codePoints[index + 1] = CONTINUATION;
+            states[index + 1] = state;
+        }
+    }
+
+    /**
+     * Writes a code point of the specified width at {@code (row, column)}, clipped to this canvas.
+     * A wide code point that is cut by an edge is replaced by a space.
+     */
+    private void put(int row, int column, int codePoint, int width, long state) {
+        if (row < 0 || row >= rows || column >= columns || column + width <= 0) {
+            return;
+        }
+        if (column < 0 || column + width > columns) {
+            set(row, Math.max(column, 0), ' ', 1, state);
+        } else {
+            set(row, column, codePoint, width, state);
+        }
+    }
+
+    /**
+     * Returns the code point at {@code (row, column)}, or {@code -1} if the cell is the second half of a wide code point.
+     *
+     * @throws IndexOutOfBoundsException if the cell is outside this canvas
+     */
+    public int codePointAt(int row, int column) {
+        return codePoints[index(row, column)];
+    }
+
+    /**
+     * Returns the state of the cell at {@code (row, column)}.
+     *
+     * @throws IndexOutOfBoundsException if the cell is outside this canvas
+     */
+    public long stateAt(int row, int column) {
+        return states[index(row, column)];
+    }
+
+    private int index(int row, int column) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row out of range: " + row);
+        }
+        if (column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("Column out of range: " + column);
+        }
+        return row * columns + column;
+    }
+
+    /**
+     * Draws the string with its states, starting at {@code (row, column)}.
+     *
+     * <p>A line terminator ({@code \n}, {@code \r} or {@code \r\n}) continues the string on the next row,
+     * starting at {@code column} again.
+     *
+     * @param row    the row of the first character
+     * @param column the column of the first character
+     * @param string the string to draw
+     * @return this canvas
+     */
+    public AnsiCanvas draw(int row, int column, AnsiString string) {
+        final String plain = string.plain;
+        final int length = plain.length();
+
+        int currentRow = row;
+        int currentColumn = column;
+        int i = 0;
+        while (i < length) {
+            final int runLimit = string.runLimit(i, length);
+            final long state = string.state0(i);
+            while (i < runLimit) {
+                final int codePoint = DisplayWidth.codePointAt(plain, i, runLimit);
+                i += Character.charCount(codePoint);
+
+                if (codePoint == '\n' || codePoint == '\r') {
+                    if (codePoint == '\r' && i < length && plain.charAt(i) == '\n') {
+                        i++;
+                    }
+                    currentRow++;
+                    currentColumn = column;
+                    continue;
+                }
+                if (currentRow < 0 || currentRow >= rows || currentColumn >= columns) {
+                    continue;
+                }
+
+                final int width = DisplayWidth.of(codePoint);
+                if (width > 0) {
+                    put(currentRow, currentColumn, codePoint, width, state);
+                    currentColumn += width;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Draws the other canvas with its top left corner at {@code (row, column)}.
+     *
+     * @param row    the row of the top left corner
+     * @param column the column of the top left corner
+     * @param canvas the canvas to draw
+     * @return this canvas
+     */
+    public AnsiCanvas draw(int row, int column, AnsiCanvas canvas) {
+        if (canvas == this && (row != 0 || column != 0)) {
+            return draw(row, column, copy());
+        }
+
+        final int fromRow = (int) Math.max(0, -(long) row);
+        final int toRow = (int) Math.min(canvas.rows, rows - (long) row);
+        final int fromColumn = (int) Math.max(0, -(long) column);
+        final int toColumn = (int) Math.min(canvas.columns, columns - (long) column);
+
+        for (int r = fromRow; r < toRow; r++) {
+            final int base = r * canvas.columns;
+            for (int c = fromColumn; c < toColumn; c++) {
+                final int codePoint = canvas.codePoints[base + c];
+                if (codePoint == CONTINUATION) {
+                    if (c == fromColumn) {
+                        // The first half is clipped
+                        put(row + r, column + c, ' ', 1, canvas.states[base + c]);
+                    }
+                    continue;
+                }
+                final int width = c + 1 < canvas.columns && canvas.codePoints[base + c + 1] == CONTINUATION ? 2 : 1;
+                put(row + r, column + c, codePoint, width, canvas.states[base + c]);
+            }
+        }
+        return this;
+    }
+
+    private AnsiCanvas copy() {
+        final AnsiCanvas copy = new AnsiCanvas(rows, columns);
+        System.arraycopy(codePoints, 0, copy.codePoints, 0, codePoints.length);
+        System.arraycopy(states, 0, copy.states, 0, states.length);
+        return copy;
+    }
+
+    /**
+     * Fills the rectangle with the code point, with the state set by {@code attribute}.
+     *
+     * @param row       the top row of the rectangle
+     * @param column    the left column of the rectangle
+     * @param height    the number of rows of the rectangle
+     * @param width     the number of columns of the rectangle
+     * @param codePoint the code point to fill with
+     * @param attribute the attribute applied to the cells
+     * @return this canvas
+     * @throws IllegalArgumentException if the code point occupies no columns
+     */
+    public AnsiCanvas fill(int row, int column, int height, int width, int codePoint, AnsiString.Attribute attribute) {
+        final int codePointWidth = DisplayWidth.of(codePoint);
+        if (codePointWidth == 0) {
+            throw new IllegalArgumentException("The code point occupies no columns: " + codePoint);
+        }
+
+        final long state = attribute.transform(0L);
+        final int fromRow = Math.max(row, 0);
+        final int toRow = (int) Math.min((long) row + height, rows);
+        for (int r = fromRow; r < toRow; r++) {
+            final int end = (int) Math.min((long) column + width, columns);
+            // Skip the code points that are entirely left of the canvas
+            final int start = column < 0 ? column + (-column / codePointWidth) * codePointWidth : column;
+            for (int c = start; c < end; c += codePointWidth) {
+                // A wide code point that does not fit in the rectangle is replaced by a space
+                if (c + codePointWidth > end) {
+                    put(r, c, ' ', 1, state);
+                } else {
+                    put(r, c, codePoint, codePointWidth, state);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Applies the attribute to the states of the cells in the rectangle, the code points are kept.
+     *
+     * @param attribute the attribute to apply
+     * @param row       the top row of the rectangle
+     * @param column    the left column of the rectangle
+     * @param height    the number of rows of the rectangle
+     * @param width     the number of columns of the rectangle
+     * @return this canvas
+     */
+    public AnsiCanvas overlay(AnsiString.Attribute attribute, int row, int column, int height, int width) {
+        final long resetMask = attribute.resetMask;
+        final long applyMask = attribute.applyMask;
+
+        final int fromRow = Math.max(row, 0);
+        final int toRow = (int) Math.min((long) row + height, rows);
+        final int fromColumn = Math.max(column, 0);
+        final int toColumn = (int) Math.min((long) column + width, columns);
+        for (int r = fromRow; r < toRow; r++) {
+            final int base = r * columns;
+            for (int i = base + fromColumn; i < base + toColumn; i++) {
+                states[i] = (states[i] & ~resetMask) | applyMask;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Draws the outline of a box with the characters of the border, with the state set by {@code attribute}.
+     *
+     * <p>Nothing is drawn if the border is {@link AnsiTable.Border#NONE}, or the box is smaller than 2x2.
+     *
+     * @param row       the top row of the box
+     * @param column    the left column of the box
+     * @param height    the number of rows of the box
+     * @param width     the number of columns of the box
+     * @param border    the style of the border
+     * @param attribute the attribute applied to the border
+     * @return this canvas
+     */
+    public AnsiCanvas box(int row, int column, int height, int width, AnsiTable.Border border, AnsiString.Attribute attribute) {
+        if (!border.hasVertical || height < 2 || width < 2) {
+            return this;
+        }
+
+        final long state = attribute.transform(0L);
+        final int bottom = row + height - 1;
+        final int right = column + width - 1;
+
+        put(row, column, border.top.charAt(0), 1, state);
+        put(row, right, border.top.charAt(3), 1, state);
+        put(bottom, column, border.bottom.charAt(0), 1, state);
+        put(bottom, right, border.bottom.charAt(3), 1, state);
+
+        final int fromColumn = Math.max(column + 1, 0);
+        final int toColumn = Math.min(right, columns);
+        for (int c = fromColumn; c < toColumn; c++) {
+            put(row, c, border.top.charAt(1), 1, state);
+            put(bottom, c, border.bottom.charAt(1), 1, state);
+        }
+
+        final int fromRow = Math.max(row + 1, 0);
+        final int toRow = Math.min(bottom, rows);
+        for (int r = fromRow; r < toRow; r++) {
+            put(r, column, border.vertical, 1, state);
+            put(r, right, border.vertical, 1, state);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the row as an {@code AnsiString}.
+     *
+     * @param row the row
+     * @return the row
+     * @throws IndexOutOfBoundsException if the row is outside this canvas
+     */
+    public AnsiString row(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row out of range: " + row);
+        }
+        final AnsiStringBuilder builder = new AnsiStringBuilder(columns);
+        appendRow(row, builder);
+        return builder.build();
+    }
+
+    private void appendRow(int row, AnsiStringBuilder builder) {
+        final int base = row * columns;
+        for (int i = base; i < base + columns; i++) {
+            final int codePoint = codePoints[i];
+            if (codePoint == CONTINUATION) {
+                continue;
+            }
+            if (Character.isBmpCodePoint(codePoint)) {
+                builder.append((char) codePoint, states[i]);
+            } else {
+                builder.append(Character.highSurrogate(codePoint), states[i]);
+                builder.append(Character.lowSurrogate(codePoint), states[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the rows of this canvas joined by {@code '\n'} as an {@code AnsiString}.
+     *
+     * @return the content of this canvas
+     */
+    public AnsiString toAnsiString() {
+        final AnsiStringBuilder builder = new AnsiStringBuilder(rows * (columns + 1));
+        render(builder);
+        return builder.build();
+    }
+
+    /**
+     * Appends the rows of this canvas to the {@code builder}, each row ends with {@code '\n'} except the last one.
+     *
+     * @param builder the builder
+     */
+    public void render(AnsiStringBuilder builder) {
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                builder.append('\n', 0L);
+            }
+            appendRow(row, builder);
+        }
+    }
+
+    /**
+     * Encodes the rows of this canvas to {@code output}, each row ends with {@code '\n'} except the last one.
+     *
+     * <p>The escape sequences are only emitted where the state changes, and every row ends in the default state.
+     *
+     * @param output the output
+     * @param level  the color level used to encode the states
+     * @throws IOException if an I/O error occurs
+     */
+    public void render(Appendable output, AnsiString.ColorLevel level) throws IOException {
+        if (level == null) {
+            throw new NullPointerException();
+        }
+
+        final StringBuilder line = output instanceof StringBuilder ? (StringBuilder) output : new StringBuilder(columns * 2);
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                line.append('\n');
+            }
+
+            long currentState = 0L;
+            final int base = row * columns;
+            for (int i = base; i < base + columns; i++) {
+                final int codePoint = codePoints[i];
+                if (codePoint == CONTINUATION) {
+                    continue;
+                }
+                final long state = level.downsample(states[i]);
+                if (state != currentState) {
+                    TransitionCache.append(currentState, state, line);
+                    currentState = state;
+                }
+                line.appendCodePoint(codePoint);
+            }
+            if (currentState != 0L) {
+                TransitionCache.append(currentState, 0L, line);
+            }
+
+            if (line != output) {
+                output.append(line);
+                line.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Returns the encoded content of this canvas.
+     *
+     * @see #render(Appendable, AnsiString.ColorLevel)
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        try {
+            render(builder, AnsiString.ColorLevel.TRUE_COLOR);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.DuplicateFormatFlagsException;
+import java.util.IllegalFormatConversionException;
+import java.util.IllegalFormatFlagsException;
+import java.util.IllegalFormatPrecisionException;
+import java.util.IllegalFormatWidthException;
+import java.util.List;
+import java.util.MissingFormatArgumentException;
+import java.util.MissingFormatWidthException;
+import java.util.UnknownFormatConversionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A parsed format pattern of {@link AnsiString#format(AnsiString, Object...)}.
+ *
+ * <p>A format specifier has the syntax {@code %[index$][flags][width][.precision]conversion}, where the index is
+ * a positive integer or {@code <}, the flags are {@code -} and {@code 0}, and the conversion is one of
+ * {@code s}, {@code d}, {@code %} and {@code n}. Widths and precisions are measured in terminal columns.
+ *
+ * <p>An {@link AnsiFormattable} argument of a {@code %s} without width and precision is formatted straight into the result.
+ */
+final class AnsiFormat {
+    /**
+     * A direct-mapped cache of parsed patterns, indexed by the hash of the pattern.
+     *
+     * <p>It can be configured with the {@code kala.ansi.formatCacheSize} system property.
+     *
+     * @see Caches#size(String, int)
+     */
+    private static final AtomicReferenceArray<AnsiFormat> CACHE = Caches.create(Caches.size("kala.ansi.formatCacheSize", 256));
+
+    private static final int FLAG_LEFT_JUSTIFY = 1;
+    private static final int FLAG_ZERO_PAD = 2;
+
+    private final AnsiString pattern;
+
+    /**
+     * The fixed segments, {@code segments[i]} precedes the specifier {@code i}.
+     */
+    private final AnsiString[] segments;
+    private final Specifier[] specifiers;
+    private final int fixedLength;
+
+    private AnsiFormat(AnsiString pattern, AnsiString[] segments, Specifier[] specifiers) {
+        this.pattern = pattern;
+        this.segments = segments;
+        this.specifiers = specifiers;
+
+        int fixedLength = 0;
+        for (AnsiString segment : segments) {
+            fixedLength += segment.length();
+        }
+        this.fixedLength = fixedLength;
+    }
+
+    static AnsiFormat of(AnsiString pattern) {
+        final AtomicReferenceArray<AnsiFormat> cache = CACHE;
+        if (cache == null) {
+            return parse(pattern);
+        }
+
+        final int slot = Caches.slot(cache, pattern.hashCode());
+        AnsiFormat format = cache.get(slot);
+        if (format == null || format.pattern != pattern && !format.pattern.equals(pattern)) {
+            format = parse(pattern);
+            cache.set(slot, format);
+        }
+        return format;
+    }
+
+    private static AnsiFormat parse(AnsiString pattern) {
+        final String plain = pattern.plain;
+        final int length = plain.length();
+
+        final List<AnsiString> segments = new ArrayList<>();
+        final List<Specifier> specifiers = new ArrayList<>();
+
+        int ordinaryIndex = 0;
+        int lastIndex = -1;
+        int segmentStart = 0;
+        int i = plain.indexOf('%');
+        while (i >= 0) {
+            final int start = i;
+            int j = i + 1;
+
+            // Explicit or relative index
+            int index = -2;
+            if (j < length && plain.charAt(j) == '<') {
+                index = -1;
+                j++;
+            } else {
+                int k = j;
+                while (k < length && isDigit(plain.charAt(k))) {
+                    k++;
+                }
+                if (k > j && k < length && plain.charAt(k) == '$') {
+                    index = parseInt(plain, j, k) - 1;
+                    if (index < 0) {
+                        throw new MissingFormatArgumentException(plain.substring(start, k + 1));
+                    }
+                    j = k + 1;
+                }
+            }
+
+            int flags = 0;
+            while (j < length) {
+                final char ch = plain.charAt(j);
+                final int flag = ch == '-' ? FLAG_LEFT_JUSTIFY : ch == '0' ? FLAG_ZERO_PAD : 0;
+                if (flag == 0) {
+                    break;
+                }
+                if ((flags & flag) != 0) {
+                    throw new DuplicateFormatFlagsException(String.valueOf(ch));
+                }
+                flags |= flag;
+                j++;
+            }
+
+            int width = -1;
+            int k = j;
+            while (k < length && isDigit(plain.charAt(k))) {
+                k++;
+            }
+            if (k > j) {
+                width = parseInt(plain, j, k);
+                j = k;
+            }
+
+            int precision = -1;
+            if (j < length && plain.charAt(j) == '.') {
+                k = ++j;
+                while (k < length && isDigit(plain.charAt(k))) {
+                    k++;
+                }
+                if (k == j) {
+                    throw new UnknownFormatConversionException(".");
+                }
+                precision = parseInt(plain, j, k);
+                j = k;
+            }
+
+            if (j >= length) {
+                throw new UnknownFormatConversionException("%");
+            }
+            final char conversion = plain.charAt(j);
+            final String spec = plain.substring(start, j + 1);
+            switch (conversion) {
+                case 's':
+                case 'd':
+                    if (index == -1) {
+                        if (lastIndex < 0) {
+                            throw new MissingFormatArgumentException(spec);
+                        }
+                        index = lastIndex;
+                    } else if (index == -2) {
+                        index = ordinaryIndex++;
+                    }
+                    lastIndex = index;
+                    break;
+                case '%':
+                    if (precision >= 0) {
+                        throw new IllegalFormatPrecisionException(precision);
+                    }
+                    index = -1;
+                    break;
+                case 'n':
+                    if (width >= 0) {
+                        throw new IllegalFormatWidthException(width);
+                    }
+                    if (precision >= 0) {
+                        throw new IllegalFormatPrecisionException(precision);
+                    }
+                    if (flags != 0) {
+                        throw new IllegalFormatFlagsException(spec);
+                    }
+                    index = -1;
+                    break;
+                default:
+                    throw new UnknownFormatConversionException(String.valueOf(conversion));
+            }
+
+            if ((flags & FLAG_LEFT_JUSTIFY) != 0 && width < 0) {
+                throw new MissingFormatWidthException(spec);
+            }
+            if ((flags & FLAG_ZERO_PAD) != 0) {
+                if (width < 0) {
+                    throw new MissingFormatWidthException(spec);
+                }
+                if (conversion != 'd' || (flags & FLAG_LEFT_JUSTIFY) != 0) {
+                    throw new IllegalFormatFlagsException(spec);
+                }
+            }
+            if (conversion == 'd' && precision >= 0) {
+                throw new IllegalFormatPrecisionException(precision);
+            }
+
+            segments.add(AnsiSplitter.slice(pattern, segmentStart, start));
+            specifiers.add(new Specifier(spec, index, flags, width, precision, conversion, pattern.state0(start)));
+            segmentStart = j + 1;
+            i = plain.indexOf('%', segmentStart);
+        }
+        segments.add(AnsiSplitter.slice(pattern, segmentStart, length));
+
+        return new AnsiFormat(pattern, segments.toArray(new AnsiString[0]), specifiers.toArray(new Specifier[0]));
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static int parseInt(String str, int begin, int end) {
+        try {
+            return Integer.parseInt(str.substring(begin, end));
+        } catch (NumberFormatException e) {
+            throw new IllegalFormatWidthException(Integer.MAX_VALUE);
+        }
+    }
+
+    AnsiString format(Object[] args) {
+        final int count = specifiers.length;
+        final AnsiFormattable[] values = new AnsiFormattable[count];
+        final int[] paddings = new int[count];
+
+        long length = fixedLength;
+        for (int i = 0; i < count; i++) {
+            final Specifier specifier = specifiers[i];
+            AnsiString value;
+            int columns;
+            switch (specifier.conversion) {
+                case 's': {
+                    final Object arg = specifier.argument(args);
+                    if (arg instanceof AnsiFormattable && !(arg instanceof AnsiString)
+                            && specifier.width <= 0 && specifier.precision < 0) {
+                        values[i] = (AnsiFormattable) arg;
+                        continue;
+                    }
+                    value = AnsiString.valueOf(arg);
+                    if (specifier.precision >= 0) {
+                        value = value.truncate(specifier.precision, AnsiString.EMPTY);
+                    }
+                    columns = specifier.width > 0 ? DisplayWidth.of(value.plain, 0, value.length()) : 0;
+                    break;
+                }
+                case 'd': {
+                    final Object arg = specifier.argument(args);
+                    if (arg != null && !(arg instanceof Integer || arg instanceof Long || arg instanceof Short
+                            || arg instanceof Byte || arg instanceof BigInteger)) {
+                        throw new IllegalFormatConversionException('d', arg.getClass());
+                    }
+                    String str = String.valueOf(arg);
+                    if ((specifier.flags & FLAG_ZERO_PAD) != 0 && arg != null && str.length() < specifier.width) {
+                        final boolean negative = str.charAt(0) == '-';
+                        final StringBuilder builder = new StringBuilder(specifier.width);
+                        if (negative) {
+                            builder.append('-');
+                        }
+                        for (int n = str.length(); n < specifier.width; n++) {
+                            builder.append('0');
+                        }
+                        builder.append(str, negative ? 1 : 0, str.length());
+                        str = builder.toString();
+                    }
+                    value = AnsiString.ofPlain(str);
+                    columns = str.length();
+                    break;
+                }
+                case '%':
+                    value = AnsiString.ofPlain("%");
+                    columns = 1;
+                    break;
+                default:
+                    value = AnsiString.ofPlain(System.lineSeparator());
+                    columns = 0;
+                    break;
+            }
+            values[i] = value;
+            paddings[i] = Math.max(0, specifier.width - columns);
+            length += value.length() + paddings[i];
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Required length exceeds implementation limit");
+        }
+
+        final AnsiStringBuilder builder = new AnsiStringBuilder((int) length);
+        for (int i = 0; i < count; i++) {
+            final Specifier specifier = specifiers[i];
+            final boolean leftJustify = (specifier.flags & FLAG_LEFT_JUSTIFY) != 0;
+            builder.append(segments[i]);
+            if (!leftJustify) {
+                appendSpaces(builder, paddings[i], specifier.state);
+            }
+            builder.appendOver(values[i], specifier.state);
+            if (leftJustify) {
+                appendSpaces(builder, paddings[i], specifier.state);
+            }
+        }
+        builder.append(segments[count]);
+        return builder.build();
+    }
+
+    private static void appendSpaces(AnsiStringBuilder builder, int count, long state) {
+        for (int i = 0; i < count; i++) {
+            builder.append(' ', state);
+        }
+    }
+
+    private static final class Specifier {
+        final String spec;
+
+        /**
+         * The index of the argument, or {@code -1} if the specifier takes no argument.
+         */
+        final int index;
+        final int flags;
+        final int width;
+        final int precision;
+        final char conversion;
+
+        /**
+         * The state of the {@code %} in the pattern, which is the state of the padding
+         * and of the categories in which the argument has no state.
+         */
+        final long state;
+
+        Specifier(String spec, int index, int flags, int width, int precision, char conversion, long state) {
+            this.spec = spec;
+            this.index = index;
+            this.flags = flags;
+            this.width = width;
+            this.precision = precision;
+            this.conversion = conversion;
+            this.state = state;
+        }
+
+        Object argument(Object[] args) {
+            if (index >= args.length) {
+                throw new MissingFormatArgumentException(spec);
+            }
+            return args[index];
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+/**
+ * An object that appends its styled representation to an {@link AnsiStringBuilder} directly.
+ *
+ * <p>{@link AnsiString#valueOf(Object)}, and therefore {@link AnsiString#plus(Object)} and
+ * {@link AnsiString#concat(CharSequence)}, as well as {@link AnsiTemplate} and {@link AnsiString#format(AnsiString, Object...)},
+ * call {@link #formatTo(AnsiStringBuilder)} instead of parsing the result of {@link Object#toString()},
+ * so the object does not have to encode its states into escape sequences only to have them parsed back.
+ * Templates and format specifiers without width and precision let it append straight into the result.
+ */
+public interface AnsiFormattable {
+    /**
+     * Appends the styled representation of this object to the {@code builder}.
+     *
+     * <p>Implementations should only append to the {@code builder}.
+     *
+     * @param builder the builder
+     */
+    void formatTo(AnsiStringBuilder builder);
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy splitting of {@link AnsiString}.
+ *
+ * <p>Splitting by a character, a line terminator or a literal separator that cannot overlap itself
+ * is backed by a {@link Spliterator} that splits at the separator nearest to the middle of its range,
+ * so the segments can be produced in parallel.
+ */
+final class AnsiSplitter {
+    private AnsiSplitter() {
+    }
+
+    /**
+     * Ranges shorter than this are not split further.
+     */
+    private static final int SPLIT_THRESHOLD = 1 << 12;
+
+    static Stream<AnsiString> lines(AnsiString string) {
+        final String plain = string.plain;
+        int end = plain.length();
+        if (end == 0) {
+            return Stream.empty();
+        }
+
+        // Like String.lines(), the terminator of the last line does not start an empty line
+        final char last = plain.charAt(end - 1);
+        if (last == '\n') {
+            end -= end >= 2 && plain.charAt(end - 2) == '\r' ? 2 : 1;
+        } else if (last == '\r') {
+            end--;
+        }
+        return StreamSupport.stream(new Segments(string, Separator.LINES, 0, end), false);
+    }
+
+    static Stream<AnsiString> split(AnsiString string, char separator) {
+        return split(string, new Separator(String.valueOf(separator)));
+    }
+
+    static Stream<AnsiString> split(AnsiString string, String separator) {
+        if (separator.isEmpty()) {
+            return split(string, Pattern.compile(""));
+        }
+        if (hasBorder(separator)) {
+            return split(string, Pattern.compile(separator, Pattern.LITERAL));
+        }
+        return split(string, new Separator(separator));
+    }
+
+    private static Stream<AnsiString> split(AnsiString string, Separator separator) {
+        final String plain = string.plain;
+        final String literal = separator.literal;
+        if (plain.isEmpty()) {
+            return Stream.of(string);
+        }
+
+        // Like String.split(String), trailing empty segments are removed
+        int end = plain.length();
+        while (end >= literal.length() && plain.startsWith(literal, end - literal.length())) {
+            end -= literal.length();
+        }
+        if (end == 0) {
+            return Stream.empty();
+        }
+        return StreamSupport.stream(new Segments(string, separator, 0, end), false);
+    }
+
+    static Stream<AnsiString> split(AnsiString string, Pattern pattern) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                new PatternSegments(string, pattern), Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE
+        ), false);
+    }
+
+    /**
+     * Returns {@code true} if a proper prefix of {@code separator} is also its suffix,
+     * in which case two occurrences of it can overlap.
+     */
+    private static boolean hasBorder(String separator) {
+        final int length = separator.length();
+        for (int n = 1; n < length; n++) {
+            if (separator.regionMatches(0, separator, length - n, n)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static AnsiString slice(AnsiString string, int begin, int end) {
+        if (begin == end) {
+            return AnsiString.EMPTY;
+        }
+        if (begin == 0 && end == string.length()) {
+            return string;
+        }
+        return string.substring(begin, end);
+    }
+
+    private static final class Separator {
+        static final Separator LINES = new Separator(null);
+
+        /**
+         * The literal separator, or {@code null} for line terminators.
+         */
+        final String literal;
+
+        Separator(String literal) {
+            this.literal = literal;
+        }
+
+        /**
+         * Returns the index of the first separator in {@code plain[from, limit)}, or {@code -1} if there is none.
+         */
+        int find(String plain, int from, int limit) {
+            if (literal == null) {
+                for (int i = from; i < limit; i++) {
+                    final char ch = plain.charAt(i);
+                    if (ch == '\n' || ch == '\r') {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+
+            final int index = literal.length() == 1 ? plain.indexOf(literal.charAt(0), from) : plain.indexOf(literal, from);
+            return index >= 0 && index + literal.length() <= limit ? index : -1;
+        }
+
+        /**
+         * Returns the length of the separator at {@code index}.
+         */
+        int length(String plain, int index, int limit) {
+            if (literal == null) {
+                return plain.charAt(index) == '\r' && index + 1 < limit && plain.charAt(index + 1) == '\n' ? 2 : 1;
+            }
+            return literal.length();
+        }
+    }
+
+    /**
+     * The segments of {@code [begin, end)}. The range is a whole number of segments:
+     * it is not preceded by a partial segment, and its last segment ends at {@code end}.
+     */
+    private static final class Segments implements Spliterator<AnsiString> {
+        private final AnsiString string;
+        private final Separator separator;
+        private int begin;
+        private final int end;
+        private boolean done;
+
+        Segments(AnsiString string, Separator separator, int begin, int end) {
+            this.string = string;
+            this.separator = separator;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super AnsiString> action) {
+            if (done) {
+                return false;
+            }
+
+            final String plain = string.plain;
+            final int index = separator.find(plain, begin, end);
+            if (index < 0) {
+                done = true;
+                action.accept(slice(string, begin, end));
+            } else {
+                final int segmentBegin = begin;
+                begin = index + separator.length(plain, index, end);
+                action.accept(slice(string, segmentBegin, index));
+            }
+            return true;
+        }
+
+        @Override
+        public Spliterator<AnsiString> trySplit() {
+            if (done || end - begin < SPLIT_THRESHOLD) {
+                return null;
+            }
+
+            final String plain = string.plain;
+            final int middle = (begin + end) >>> 1;
+            int index = separator.find(plain, middle, end);
+            if (index < 0) {
+                return null;
+            }
+            if (separator.literal == null && plain.charAt(index) == '\n' && index > begin && plain.charAt(index - 1) == '\r') {
+                index--;
+            }
+
+            final Segments prefix = new Segments(string, separator, begin, index);
+            begin = index + separator.length(plain, index, end);
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return done ? 0 : end - begin + 1;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /**
+     * The segments of a string split by a regular expression, with the semantics of {@link Pattern#splitAsStream}.
+     */
+    private static final class PatternSegments implements Iterator<AnsiString> {
+        private final AnsiString string;
+        private final Matcher matcher;
+
+        private int current = 0;
+        private AnsiString next;
+        private int emptyCount = 0;
+        private boolean matched = false;
+        private boolean finished = false;
+
+        PatternSegments(AnsiString string, Pattern pattern) {
+            this.string = string;
+            this.matcher = pattern.matcher(string.plain);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+
+            final int length = string.length();
+            while (matcher.find()) {
+                // A zero-width match at the beginning never produces an empty leading segment
+                if (matcher.end() == 0) {
+                    continue;
+                }
+                matched = true;
+
+                final int begin = current;
+                current = matcher.end();
+                if (begin == matcher.start()) {
+                    emptyCount++;
+                } else {
+                    next = slice(string, begin, matcher.start());
+                    return true;
+                }
+            }
+
+            finished = true;
+            if (!matched) {
+                next = string;
+                return true;
+            }
+            if (current < length) {
+                next = slice(string, current, length);
+                return true;
+            }
+            // The remaining empty segments are trailing, so they are dropped
+            emptyCount = 0;
+            return false;
+        }
+
+        @Override
+        public AnsiString next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (emptyCount > 0) {
+                emptyCount--;
+                return AnsiString.EMPTY;
+            }
+            final AnsiString res = next;
+            next = null;
+            return res;
+        }
+    }
+}
@@ -15,11 +15,19 @@
  */
 package kala.ansi;
 
-import java.io.IOException;
 import java.io.Serializable;
+import java.nio.LongBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongUnaryOperator;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
 
 /**
  * The {@code AnsiString} class represents a string decorated with ANSI colors.
@@ -28,18 +36,18 @@ import java.util.regex.Pattern;
  * you can invoke the {@link #getPlain()}  method to get the plain text and do more on it.
  * If you need the string containing ANSI escape characters, you can invoke the {@link #toString()} method to get it.
  */
-public final class AnsiString implements Serializable, Comparable<AnsiString> {
+public final class AnsiString implements Serializable, Comparable<AnsiString>, AnsiFormattable {
     private static final long serialVersionUID = -2640452895881997219L;
     private static final int HASH_MAGIC = -1064710924;
 
     private static final Pattern ANSI_PATTERN = Pattern.compile("(\u009b|\u001b\\[)[0-?]*[ -/]*[@-~]");
-    private static final AnsiString EMPTY = new AnsiString("");
+    static final AnsiString EMPTY = new AnsiString("");
     private static final AnsiString NULL = new AnsiString("null");
     static final String RESET = "\u001b[0m";
 
-    private final String plain;
-    private final long[] states;
-    private final int statesFrom;
+    final String plain;
+    final long[] states;
+    final int statesFrom;
 
     private AnsiString(String plain) {
         this.plain = plain;
@@ -58,6 +66,21 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         }
     }
 
+    /**
+     * Creates an {@code AnsiString} without copying or checking the arguments.
+     *
+     * @param states the states of characters starting at {@code statesFrom}, or {@code null}
+     */
+    static AnsiString of0(String plain, long[] states, int statesFrom) {
+        if (plain.isEmpty()) {
+            return EMPTY;
+        }
+        if (states == null || states.length == 0) {
+            return new AnsiString(plain);
+        }
+        return new AnsiString(plain, states, statesFrom);
+    }
+
     static int trimStatesInit(long[] states) {
         if (states == null) {
             return 0;
@@ -95,29 +118,33 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
     /**
      * Returns the ansi string representation of the {@code raw} argument.
      * <p>
-     * This method is equivalent to {@code AnsiString.parse(raw)}.
+     * This method is equivalent to {@code AnsiString.parse(raw)}, unless {@code raw} is an {@link AnsiFormattable}.
      *
      * @param raw an {@code CharSequence}
      * @return if the argument is {@code null}, then a stateless ansi string equal to
-     * {@code AnsiString.valueOf("null")}; otherwise, the value of
-     * {@code AnsiString.parse(object.toString())} is returned
+     * {@code AnsiString.valueOf("null")}; if it is an {@code AnsiFormattable}, the string it formats;
+     * otherwise, the value of {@code AnsiString.parse(object.toString())} is returned
      */
     public static AnsiString valueOf(CharSequence raw) {
         if (raw == null) {
             return NULL;
         }
+        if (raw instanceof AnsiFormattable) {
+            return format((AnsiFormattable) raw);
+        }
         return parse(raw);
     }
 
     /**
      * Returns the ansi string representation of the {@code Object} argument.
      * <p>
-     * This method is equivalent to {@code AnsiString.parse(Objects.toString(object))}.
+     * This method is equivalent to {@code AnsiString.parse(Objects.toString(object))}, unless {@code object}
+     * is an {@link AnsiFormattable}.
      *
      * @param object an {@code Object}
      * @return if the argument is {@code null}, then a stateless ansi string equal to
-     * {@code AnsiString.valueOf("null")}; otherwise, the value of
-     * {@code AnsiString.parse(object.toString())} is returned
+     * {@code AnsiString.valueOf("null")}; if it is an {@code AnsiFormattable}, the string it formats;
+     * otherwise, the value of {@code AnsiString.parse(object.toString())} is returned
      */
     public static AnsiString valueOf(Object object) {
         if (object == null) {
@@ -126,12 +153,21 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         if (object instanceof AnsiString) {
             return ((AnsiString) object);
         }
+        if (object instanceof AnsiFormattable) {
+            return format((AnsiFormattable) object);
+        }
         if (object instanceof CharSequence) {
             return parse(((CharSequence) object));
         }
         return parse(object.toString());
     }
 
+    private static AnsiString format(AnsiFormattable formattable) {
+        final AnsiStringBuilder builder = new AnsiStringBuilder();
+        formattable.formatTo(builder);
+        return builder.build();
+    }
+
     /**
      * Parse a {@code CharSequence} containing ANSI escape sequence to {@code AnsiString}.
      *
@@ -280,7 +316,7 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
                                         } else {
                                             currentColor =
                                                     (currentColor & ~category.mask()) |
-                                                            ((273 + category.trueIndex(r, g, b)) << category.offset);
+                                                            ((273L + category.trueIndex(r, g, b)) << category.offset);
 
                                         }
                                     }
@@ -327,6 +363,46 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         }
     }
 
+    /**
+     * Renders the style markup with the arguments, for example {@code AnsiString.markup("[red]{}[/]: {}", level, message)}.
+     *
+     * <p>The compiled markup is cached, this is equivalent to {@code AnsiTemplate.compile(markup).render(args)}.
+     *
+     * @param markup the markup
+     * @param args   the arguments, one for each slot
+     * @return the rendered string
+     * @throws IllegalArgumentException if the markup is malformed, or the number of arguments is not the same as
+     *                                  the number of slots
+     * @see AnsiTemplate
+     */
+    public static AnsiString markup(String markup, Object... args) {
+        return AnsiTemplate.compile(markup).render(args);
+    }
+
+    /**
+     * Returns a formatted string using the format pattern and arguments.
+     *
+     * <p>The pattern supports a subset of the {@link java.util.Formatter} syntax:
+     * {@code %[index$][flags][width][.precision]conversion}, where the index is a positive integer or {@code <},
+     * the flags are {@code -} (left-justify) and {@code 0} (zero-pad, only for {@code d}),
+     * and the conversion is one of {@code s}, {@code d}, {@code %} and {@code n}.
+     *
+     * <p>Unlike {@code String.format}, widths and precisions are measured in terminal columns of the visible text.
+     * {@code AnsiString} arguments keep their states, and the categories in which they have no state,
+     * as well as the padding, take the state of the {@code %} in the pattern.
+     * Other arguments of {@code s} are converted by {@link #valueOf(Object)}.
+     *
+     * <p>Parsed patterns are cached.
+     *
+     * @param pattern the format pattern
+     * @param args    the arguments
+     * @return the formatted string
+     * @throws java.util.IllegalFormatException if the pattern is malformed, or an argument is missing or of the wrong type
+     */
+    public static AnsiString format(AnsiString pattern, Object... args) {
+        return AnsiFormat.of(pattern).format(args);
+    }
+
     /**
      * Construct an {@code AnsiString} from plain text.
      */
@@ -341,6 +417,31 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         return new AnsiString(plain.toString());
     }
 
+    /**
+     * Construct an {@code AnsiString} from plain text and the states of a range of characters.
+     *
+     * <p>The character at index {@code i} has the state {@code states[i - from]} if it is in the range
+     * {@code [from, from + states.length)}, otherwise it has the state {@code 0}.
+     *
+     * <p>The {@code states} array is not copied, so it must not be modified after calling this method.
+     *
+     * @param plain  the plain text
+     * @param states the states of the characters in range, or {@code null} if all states are {@code 0}
+     * @param from   the index of the first character that {@code states} describes
+     * @return the {@code AnsiString}
+     * @throws IndexOutOfBoundsException if {@code from} is negative,
+     *                                   or the range {@code [from, from + states.length)} exceeds the plain text
+     */
+    public static AnsiString ofStates(String plain, long[] states, int from) {
+        if (plain == null) {
+            throw new NullPointerException();
+        }
+        if (states != null && (from < 0 || from > plain.length() - states.length)) {
+            throw new IndexOutOfBoundsException("Range out of bounds: [" + from + ", " + ((long) from + states.length) + ")");
+        }
+        return of0(plain, states, from);
+    }
+
     /**
      * Concatenates two {@code AnsiString}s.
      *
@@ -380,8 +481,14 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         int length = 0;
         int stateFrom = -1;
         int stateLimit = -1;
+        int parts = 0;
+        boolean encodedCached = true;
 
         for (AnsiString string : strings) {
+            if (string.length() > 0) {
+                parts++;
+                encodedCached &= string.encoded != null;
+            }
             final long[] states = string.states;
             if (states != null && states.length > 0) {
                 final int from = length + string.statesFrom;
@@ -406,8 +513,17 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
 
         int offset = 0;
         final long[] states = new long[stateLimit - stateFrom];
+        final String[] encodedParts = encodedCached ? new String[parts] : null;
+        final int[] encodedPartEnds = encodedCached ? new int[parts] : null;
+        parts = 0;
         for (AnsiString string : strings) {
             builder.append(string.plain);
+            if (encodedCached && string.length() > 0) {
+                final String encoded = string.encoded;
+                encodedCached = encoded != null;
+                encodedParts[parts] = encoded;
+                encodedPartEnds[parts++] = offset + string.length();
+            }
             if (offset + string.statesFrom >= stateFrom) {
                 final long[] ss = string.states;
                 if (ss != null) {
@@ -420,7 +536,11 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
             }
             offset += string.length();
         }
-        return new AnsiString(builder.toString(), states, stateFrom);
+        final AnsiString res = new AnsiString(builder.toString(), states, stateFrom);
+        if (encodedCached) {
+            res.encodedParts = new EncodedParts(encodedParts, encodedPartEnds);
+        }
+        return res;
     }
 
     /**
@@ -454,6 +574,143 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         return (idx < 0 || idx >= states.length) ? 0L : states[idx];
     }
 
+    /**
+     * Returns a read-only view of the stored states, without copying them.
+     *
+     * <p>Only the states from the first to the last character with a non-zero state are stored,
+     * the element {@code i} of the view is the state of the character {@code getStatesOffset() + i},
+     * and the states of the other characters are {@code 0}.
+     *
+     * @return the read-only view of the stored states
+     * @see #getStatesOffset()
+     */
+    public LongBuffer getStatesView() {
+        final long[] states = this.states;
+        return states == null ? LongBuffer.allocate(0).asReadOnlyBuffer() : LongBuffer.wrap(states).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the index of the character whose state is the first element of {@link #getStatesView()}.
+     *
+     * @return the index of the first stored state
+     */
+    public int getStatesOffset() {
+        return states == null ? 0 : statesFrom;
+    }
+
+    /**
+     * Performs the action for each run of characters with equal states, in order.
+     *
+     * @param action the action
+     */
+    public void forEachRun(RunConsumer action) {
+        if (action == null) {
+            throw new NullPointerException();
+        }
+
+        final int length = this.length();
+        int i = 0;
+        while (i < length) {
+            final int runLimit = runLimit(i, length);
+            action.accept(i, runLimit, state0(i));
+            i = runLimit;
+        }
+    }
+
+    /**
+     * Returns an iterator over the runs of characters with equal states.
+     *
+     * <p>To avoid allocation, the iterator returns the same {@code Run} instance on every call of {@code next()},
+     * updated to the next run. Use {@link #runSpliterator()} if the runs need to be kept.
+     *
+     * @return the iterator over the runs
+     */
+    public Iterator<Run> runs() {
+        return new Iterator<Run>() {
+            private final Run cursor = new Run(0, 0, 0L);
+
+            @Override
+            public boolean hasNext() {
+                return cursor.end < length();
+            }
+
+            @Override
+            public Run next() {
+                final int start = cursor.end;
+                if (start >= length()) {
+                    throw new NoSuchElementException();
+                }
+                cursor.start = start;
+                cursor.end = runLimit(start, length());
+                cursor.state = state0(start);
+                return cursor;
+            }
+        };
+    }
+
+    /**
+     * Returns a spliterator over the runs of characters with equal states.
+     *
+     * <p>The spliterator splits at the run boundary nearest to the middle of its range,
+     * so the runs of a large string can be processed by a parallel stream.
+     * Each run is a new {@code Run} instance.
+     *
+     * @return the spliterator over the runs
+     * @see java.util.stream.StreamSupport#stream(Spliterator, boolean)
+     */
+    public Spliterator<Run> runSpliterator() {
+        return new RunSpliterator(this, 0, length());
+    }
+
+    private static final class RunSpliterator implements Spliterator<Run> {
+        private static final int SPLIT_THRESHOLD = 1 << 12;
+
+        private final AnsiString string;
+        private int begin;
+        private final int end;
+
+        RunSpliterator(AnsiString string, int begin, int end) {
+            this.string = string;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Run> action) {
+            if (begin >= end) {
+                return false;
+            }
+            final int start = begin;
+            begin = string.runLimit(start, end);
+            action.accept(new Run(start, begin, string.state0(start)));
+            return true;
+        }
+
+        @Override
+        public Spliterator<Run> trySplit() {
+            if (end - begin < SPLIT_THRESHOLD) {
+                return null;
+            }
+            final int middle = string.runLimit((begin + end) >>> 1, end);
+            if (middle >= end) {
+                return null;
+            }
+            final RunSpliterator prefix = new RunSpliterator(string, begin, middle);
+            begin = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - begin;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+
     /**
      * Returns the length of the plain text.
      *
@@ -611,7 +868,362 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
 
         final long[] newStates = rf == rt ? null : Arrays.copyOfRange(states, rf, rt);
 
-        return new AnsiString(plain.substring(beginIndex, endIndex), newStates, newStateFrom);
+        final AnsiString res = new AnsiString(plain.substring(beginIndex, endIndex), newStates, newStateFrom);
+        final String encoded = this.encoded;
+        if (newStates != null && encoded != null && beginIndex + (size - endIndex) < newLen) {
+            res.encoded = substringEncoded(encoded, beginIndex, endIndex);
+        }
+        return res;
+    }
+
+    /**
+     * Cuts the encoding of {@code substring(beginIndex, endIndex)} out of the cached encoding of this string.
+     *
+     * <p>This only walks the states outside the range, so it is used when the range covers most of the string.
+     */
+    private String substringEncoded(String encoded, int beginIndex, int endIndex) {
+        final long firstState = state0(beginIndex);
+        final long lastState = state0(endIndex - 1);
+
+        final int from = encodedLength(0, beginIndex, 0L, false, ColorLevel.TRUE_COLOR)
+                + TransitionCache.length(beginIndex == 0 ? 0L : state0(beginIndex - 1), firstState);
+        final int to = encoded.length() - encodedLength(endIndex, length(), lastState, true, ColorLevel.TRUE_COLOR);
+
+        final StringBuilder builder = new StringBuilder(
+                TransitionCache.length(0L, firstState) + (to - from) + TransitionCache.length(lastState, 0L));
+        TransitionCache.append(0L, firstState, builder);
+        builder.append(encoded, from, to);
+        TransitionCache.append(lastState, 0L, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Returns a stream of the lines of this string, separated by {@code \n}, {@code \r} or {@code \r\n}.
+     *
+     * <p>Like {@code String.lines()}, the lines do not include the terminators,
+     * and the terminator at the end of the string does not start an empty line.
+     * The lines are produced lazily, and the stream can be split for parallel processing.
+     *
+     * @return the stream of lines
+     */
+    public Stream<AnsiString> lines() {
+        return AnsiSplitter.lines(this);
+    }
+
+    /**
+     * Splits this string around the {@code separator}, with the semantics of {@link String#split(String)}:
+     * trailing empty strings are not included.
+     *
+     * @param separator the separator
+     * @return the lazy stream of the segments
+     * @see #split(String)
+     */
+    public Stream<AnsiString> split(char separator) {
+        return AnsiSplitter.split(this, separator);
+    }
+
+    /**
+     * Splits this string around the literal {@code separator}, with the semantics of {@link String#split(String)}:
+     * trailing empty strings are not included. Unlike {@code String.split(String)}, the separator is not a regular expression.
+     *
+     * @param separator the separator
+     * @return the lazy stream of the segments
+     * @see #split(Pattern)
+     */
+    public Stream<AnsiString> split(String separator) {
+        if (separator == null) {
+            throw new NullPointerException();
+        }
+        return AnsiSplitter.split(this, separator);
+    }
+
+    /**
+     * Splits this string around matches of the {@code pattern} in the plain text,
+     * with the semantics of {@link Pattern#splitAsStream(CharSequence)}.
+     *
+     * @param pattern the pattern
+     * @return the lazy stream of the segments
+     */
+    public Stream<AnsiString> split(Pattern pattern) {
+        if (pattern == null) {
+            throw new NullPointerException();
+        }
+        return AnsiSplitter.split(this, pattern);
+    }
+
+    /**
+     * Replaces each occurrence of the literal {@code target} in the plain text with {@code replacement},
+     * with the semantics of {@link String#replace(CharSequence, CharSequence)}.
+     *
+     * <p>The characters outside the occurrences keep their states, the replacement is inserted with its own states.
+     *
+     * @param target      the literal to be replaced
+     * @param replacement the replacement
+     * @return the resulting string
+     */
+    public AnsiString replace(CharSequence target, AnsiString replacement) {
+        final String literal = target.toString();
+        if (replacement == null) {
+            throw new NullPointerException();
+        }
+
+        final int length = plain.length();
+        if (literal.isEmpty()) {
+            // Like String.replace, an empty target matches before each character and at the end
+            final int[] bounds = new int[(length + 1) * 2];
+            for (int i = 0; i <= length; i++) {
+                bounds[i * 2] = i;
+                bounds[i * 2 + 1] = i;
+            }
+            return splice(bounds, null, replacement, length + 1);
+        }
+
+        int index = plain.indexOf(literal);
+        if (index < 0) {
+            return this;
+        }
+
+        int[] bounds = new int[8];
+        int count = 0;
+        do {
+            if (count * 2 + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count * 2] = index;
+            bounds[count * 2 + 1] = index + literal.length();
+            count++;
+            index = plain.indexOf(literal, index + literal.length());
+        } while (index >= 0);
+        return splice(bounds, null, replacement, count);
+    }
+
+    /**
+     * Replaces each match of the {@code pattern} in the plain text with the result of {@code replacer},
+     * with the semantics of {@code Matcher.replaceAll(Function)}.
+     *
+     * <p>The characters outside the matches keep their states, the replacements are inserted with their own states.
+     * The {@code MatchResult} passed to the {@code replacer} is only valid during the call.
+     *
+     * @param pattern  the pattern
+     * @param replacer the function that computes the replacement of a match
+     * @return the resulting string
+     */
+    public AnsiString replaceAll(Pattern pattern, Function<? super MatchResult, ? extends AnsiString> replacer) {
+        if (replacer == null) {
+            throw new NullPointerException();
+        }
+
+        final Matcher matcher = pattern.matcher(plain);
+        if (!matcher.find()) {
+            return this;
+        }
+
+        int[] bounds = new int[8];
+        AnsiString[] replacements = new AnsiString[4];
+        int count = 0;
+        do {
+            final AnsiString replacement = replacer.apply(matcher);
+            if (replacement == null) {
+                throw new NullPointerException("The replacement of " + matcher.group() + " is null");
+            }
+            if (count == replacements.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                replacements = Arrays.copyOf(replacements, replacements.length * 2);
+            }
+            bounds[count * 2] = matcher.start();
+            bounds[count * 2 + 1] = matcher.end();
+            replacements[count] = replacement;
+            count++;
+        } while (matcher.find());
+        return splice(bounds, replacements, null, count);
+    }
+
+    /**
+     * Replaces the {@code count} ranges in {@code bounds} with {@code replacements[i]}, or {@code replacement} if
+     * {@code replacements} is {@code null}. The result is built in a buffer of its exact length.
+     */
+    private AnsiString splice(int[] bounds, AnsiString[] replacements, AnsiString replacement, int count) {
+        long resultLength = plain.length();
+        for (int i = 0; i < count; i++) {
+            final AnsiString r = replacements != null ? replacements[i] : replacement;
+            resultLength += r.length() - (bounds[i * 2 + 1] - bounds[i * 2]);
+        }
+        if (resultLength > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Required length exceeds implementation limit");
+        }
+
+        final AnsiStringBuilder builder = new AnsiStringBuilder((int) resultLength);
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            builder.append(this, last, bounds[i * 2]);
+            builder.append(replacements != null ? replacements[i] : replacement);
+            last = bounds[i * 2 + 1];
+        }
+        builder.append(this, last, plain.length());
+        return builder.build();
+    }
+
+    private transient ColumnIndex columnIndex = null;
+
+    private ColumnIndex columnIndex() {
+        ColumnIndex index = this.columnIndex;
+        if (index == null) {
+            this.columnIndex = index = ColumnIndex.of(plain);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of terminal columns occupied by this string.
+     *
+     * <p>The first call to this method, {@link #columnToIndex(int)} or {@link #substringByColumns(int, int)}
+     * builds an index of the columns, the later calls take constant or logarithmic time.
+     *
+     * @return the width of this string in columns
+     * @see #wrap(int)
+     */
+    public int columnWidth() {
+        return columnIndex().width();
+    }
+
+    /**
+     * Returns the index of the character that occupies the {@code column}.
+     *
+     * <p>If the column is occupied by the second half of a wide character, the index of the wide character is returned.
+     * If the {@code column} is {@link #columnWidth()}, {@link #length()} is returned.
+     *
+     * @param column the column
+     * @return the index of the character
+     * @throws IndexOutOfBoundsException if the {@code column} is negative or greater than {@link #columnWidth()}
+     */
+    public int columnToIndex(int column) {
+        final ColumnIndex index = columnIndex();
+        if (column < 0 || column > index.width()) {
+            throw new IndexOutOfBoundsException("Column out of range: " + column);
+        }
+        return index.floorIndex(column);
+    }
+
+    /**
+     * Returns the substring that occupies the columns in range {@code [beginColumn, endColumn)}.
+     *
+     * <p>A wide character that only partially overlaps the range is not included,
+     * and zero-width characters are kept together with the character before them.
+     *
+     * @param beginColumn the beginning column, inclusive
+     * @param endColumn   the ending column, exclusive
+     * @return the substring
+     * @throws IndexOutOfBoundsException if {@code beginColumn} is negative,
+     *                                   or {@code endColumn} is greater than {@link #columnWidth()}
+     * @throws IllegalArgumentException  if {@code beginColumn} is greater than {@code endColumn}
+     */
+    public AnsiString substringByColumns(int beginColumn, int endColumn) {
+        final ColumnIndex index = columnIndex();
+        if (beginColumn > endColumn) {
+            throw new IllegalArgumentException("beginColumn(" + beginColumn + ") > endColumn(" + endColumn + ")");
+        }
+        if (beginColumn < 0) {
+            throw new IndexOutOfBoundsException("Column out of range: " + beginColumn);
+        }
+        if (endColumn > index.width()) {
+            throw new IndexOutOfBoundsException("Column out of range: " + endColumn);
+        }
+
+        int begin = index.ceilIndex(beginColumn);
+        if (begin > 0) {
+            while (index.isZeroWidth(begin)) {
+                begin += Character.isHighSurrogate(plain.charAt(begin)) ? 2 : 1;
+            }
+        }
+        final int end = Math.max(begin, index.floorIndex(endColumn));
+        return AnsiSplitter.slice(this, begin, end);
+    }
+
+    /**
+     * Wraps this string into lines of at most {@code columns} terminal columns.
+     *
+     * <p>The width of each code point is measured in terminal columns, so wide East Asian characters occupy two columns,
+     * and combining characters occupy none. Lines are broken at line terminators and at spaces,
+     * a word wider than {@code columns} is broken between code points.
+     * The characters keep their states across the breaks.
+     *
+     * <p>The line boundaries are computed in one pass,
+     * and each line of the returned list is only created when it is accessed.
+     *
+     * @param columns the maximum width of a line
+     * @return the lines
+     * @throws IllegalArgumentException if {@code columns} is not positive
+     */
+    public List<AnsiString> wrap(int columns) {
+        if (columns <= 0) {
+            throw new IllegalArgumentException("columns(" + columns + ") <= 0");
+        }
+        return AnsiWrapper.wrap(this, columns);
+    }
+
+    /**
+     * Truncates this string to at most {@code columns} terminal columns.
+     *
+     * <p>If this string is wider than {@code columns}, the longest prefix that fits together with the {@code ellipsis}
+     * is followed by the {@code ellipsis}, otherwise this string is returned.
+     *
+     * @param columns  the maximum width
+     * @param ellipsis the string that marks the truncation, for example {@code AnsiString.ofPlain("...")}
+     * @return the truncated string
+     * @throws IllegalArgumentException if {@code columns} is negative
+     * @see #wrap(int)
+     */
+    public AnsiString truncate(int columns, AnsiString ellipsis) {
+        if (ellipsis == null) {
+            throw new NullPointerException();
+        }
+        if (columns < 0) {
+            throw new IllegalArgumentException("columns(" + columns + ") < 0");
+        }
+        return AnsiWrapper.truncate(this, columns, ellipsis);
+    }
+
+    /**
+     * Returns a {@code Collector} that concatenates the input strings, separated by the {@code delimiter}.
+     *
+     * <p>The strings are only collected into lists, so merging partial results of a parallel stream does not copy them,
+     * and the result is concatenated once by {@link #concat(Iterable)}.
+     *
+     * @param delimiter the delimiter
+     * @return the {@code Collector}
+     */
+    public static Collector<AnsiString, ?, AnsiString> joining(CharSequence delimiter) {
+        return joining(valueOf(delimiter));
+    }
+
+    /**
+     * Returns a {@code Collector} that concatenates the input strings, separated by the {@code delimiter}.
+     *
+     * @param delimiter the delimiter
+     * @return the {@code Collector}
+     * @see #joining(CharSequence)
+     */
+    public static Collector<AnsiString, ?, AnsiString> joining(AnsiString delimiter) {
+        if (delimiter == null) {
+            throw new NullPointerException();
+        }
+        return Collector.of(
+                ArrayList<AnsiString>::new,
+                (list, string) -> {
+                    if (!list.isEmpty() && !delimiter.isEmpty()) {
+                        list.add(delimiter);
+                    }
+                    list.add(string == null ? NULL : string);
+                },
+                (list1, list2) -> {
+                    if (!list1.isEmpty() && !list2.isEmpty() && !delimiter.isEmpty()) {
+                        list1.add(delimiter);
+                    }
+                    list1.addAll(list2);
+                    return list1;
+                },
+                AnsiString::concat
+        );
     }
 
     /**
@@ -623,7 +1235,18 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
      * characters and states followed by the string argument's characters .
      */
     public AnsiString concat(CharSequence string) {
-        return concat(AnsiString.valueOf(string));
+        return concatValueOf(string);
+    }
+
+    /**
+     * Concatenates {@code AnsiString.valueOf(object)} to the end of this ansi string,
+     * an {@code AnsiFormattable} is formatted directly after the characters of this ansi string.
+     */
+    private AnsiString concatValueOf(Object object) {
+        if (object instanceof AnsiFormattable && !(object instanceof AnsiString)) {
+            return new AnsiStringBuilder(this).append((AnsiFormattable) object).build();
+        }
+        return concat(AnsiString.valueOf(object));
     }
 
     /**
@@ -653,33 +1276,110 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         final long[] states = this.states;
         final long[] otherStates = other.states;
 
+        final AnsiString res;
         if (states == null) {
             if (otherStates == null) {
                 return new AnsiString(newPlain);
             } else {
-                return new AnsiString(newPlain, otherStates, thisLength + other.statesFrom);
+                res = new AnsiString(newPlain, otherStates, thisLength + other.statesFrom);
             }
         } else {
             if (otherStates == null) {
-                return new AnsiString(newPlain, states, this.statesFrom);
+                res = new AnsiString(newPlain, states, this.statesFrom);
             } else {
                 final int statesFrom = this.statesFrom;
                 long[] newStates = new long[otherStates.length + other.statesFrom + thisLength - this.statesFrom];
                 System.arraycopy(states, 0, newStates, 0, states.length);
                 System.arraycopy(otherStates, 0, newStates, other.statesFrom + thisLength - this.statesFrom, otherStates.length);
-                return new AnsiString(newPlain, newStates, statesFrom);
+                res = new AnsiString(newPlain, newStates, statesFrom);
             }
         }
+
+        final String encoded = this.encoded;
+        final String otherEncoded = other.encoded;
+        if (encoded != null && otherEncoded != null) {
+            res.encodedParts = new EncodedParts(
+                    new String[]{encoded, otherEncoded},
+                    new int[]{thisLength, thisLength + otherLength}
+            );
+        }
+        return res;
     }
 
     /**
-     * Returns a string whose value is this string, with all leading
-     * and trailing space removed, where space is defined
-     * as any character whose codepoint is less than or equal to
-     * {@code 'U+0020'} (the space character).
-     * <p>
-     * This method may be used to trim space (as defined above) from
-     * the beginning and end of a string.
+     * The cached encodings of the non-empty strings a string was concatenated from,
+     * and the offset in the concatenation where each of them ends.
+     */
+    private static final class EncodedParts {
+        final String[] encoded;
+        final int[] ends;
+
+        EncodedParts(String[] encoded, int[] ends) {
+            this.encoded = encoded;
+            this.ends = ends;
+        }
+    }
+
+    /**
+     * Builds the encoding of this string from the cached encodings of the strings it was concatenated from.
+     *
+     * <p>The encoding of each string ends with the escape sequences that reset its last state,
+     * and starts with the escape sequences that set its first state, so only the transition
+     * between two adjacent strings needs to be computed again. The first and the last state
+     * of each string are the states of this string at its bounds.
+     */
+    private String stitchEncoded(EncodedParts parts) {
+        final String[] encoded = parts.encoded;
+        final int[] ends = parts.ends;
+
+        long encodedLength = 0;
+        long lastState = 0L;
+        int begin = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            final long firstState = state0(begin);
+            final long partLastState = state0(ends[i] - 1);
+            encodedLength += encoded[i].length()
+                    - TransitionCache.length(0L, firstState)
+                    - TransitionCache.length(partLastState, 0L)
+                    + TransitionCache.length(lastState, firstState);
+            lastState = partLastState;
+            begin = ends[i];
+        }
+        encodedLength += TransitionCache.length(lastState, 0L);
+        if (encodedLength > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Encoded length exceeds the maximum string length: " + encodedLength);
+        }
+
+        final StringBuilder builder = new StringBuilder((int) encodedLength);
+        lastState = 0L;
+        begin = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            final String part = encoded[i];
+            final long firstState = state0(begin);
+            final long partLastState = state0(ends[i] - 1);
+
+            TransitionCache.append(lastState, firstState, builder);
+            builder.append(
+                    part,
+                    TransitionCache.length(0L, firstState),
+                    part.length() - TransitionCache.length(partLastState, 0L)
+            );
+            lastState = partLastState;
+            begin = ends[i];
+        }
+        TransitionCache.append(lastState, 0L, builder);
+
+        return builder.toString();
+    }
+
+    /**
+     * Returns a string whose value is this string, with all leading
+     * and trailing space removed, where space is defined
+     * as any character whose codepoint is less than or equal to
+     * {@code 'U+0020'} (the space character).
+     * <p>
+     * This method may be used to trim space (as defined above) from
+     * the beginning and end of a string.
      *
      * @return a string whose value is this string, with all leading and trailing space removed, or this string if it
      * has no leading or trailing space.
@@ -923,7 +1623,7 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         }
 
         final int newStatesFrom = Math.min(start, statesFrom);
-        final int newStatesLength = Math.max(statesFrom + states.length, end) - statesFrom;
+        final int newStatesLength = Math.max(statesFrom + states.length, end) - newStatesFrom;
 
         final long[] newStates = new long[newStatesLength];
         System.arraycopy(states, 0, newStates, statesFrom - newStatesFrom, states.length);
@@ -936,6 +1636,19 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         return new AnsiString(plain, newStates, newStatesFrom);
     }
 
+    /**
+     * Returns an empty chain of deferred overlays on this string.
+     *
+     * <p>Overlays recorded on the chain are applied in a single pass when its result is first read,
+     * which avoids copying the states once for each overlay.
+     *
+     * @return the chain
+     * @see DeferredOverlay
+     */
+    public DeferredOverlay deferOverlay() {
+        return new DeferredOverlay(this);
+    }
+
     public AnsiString overlayAll(Overlayable... oas) {
         return overlayAll(false, Arrays.asList(oas));
     }
@@ -959,181 +1672,1105 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
             return this;
         }
 
-        long[] newStates = new long[length];
-        if (states != null) {
-            System.arraycopy(states, 0, newStates, statesFrom, states.length);
-        }
+        Attribute[] attributes = new Attribute[16];
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count = 0;
 
         while (iterator.hasNext()) {
             Overlayable oa = iterator.next();
             if (oa == null) {
                 continue;
             }
-            final Attribute attr;
-            final int start;
-            final int end;
+
+            if (count == attributes.length) {
+                final int newCapacity = count * 2;
+                attributes = Arrays.copyOf(attributes, newCapacity);
+                starts = Arrays.copyOf(starts, newCapacity);
+                ends = Arrays.copyOf(ends, newCapacity);
+            }
 
             if (oa instanceof Attribute) {
-                attr = ((Attribute) oa);
-                start = 0;
+                attributes[count] = (Attribute) oa;
+                starts[count] = 0;
+                ends[count] = length;
+            } else {
+                AttributeWithRange ar = (AttributeWithRange) oa;
+                attributes[count] = ar.attribute;
+                starts[count] = ar.start;
+                ends[count] = ar.end < 0 ? length : ar.end;
+            }
+            count++;
+        }
+
+        return overlayAll0(trimStates, attributes, null, starts, ends, count);
+    }
+
+    /**
+     * Applies {@code attributes[i]} to the range {@code [starts[i], ends[i])} for each {@code i}.
+     *
+     * <p>This is equivalent to calling {@link #overlay(Attribute, int, int)} for each range in order,
+     * but the states array is only allocated and written once.
+     *
+     * @param attributes the attributes to apply
+     * @param starts     the starting indices of the ranges, inclusive
+     * @param ends       the ending indices of the ranges, exclusive
+     * @return the result string
+     * @throws IllegalArgumentException  if the arrays have different lengths
+     * @throws IndexOutOfBoundsException if any range is out of range
+     */
+    public AnsiString overlayAll(Attribute[] attributes, int[] starts, int[] ends) {
+        if (attributes.length != starts.length || starts.length != ends.length) {
+            throw new IllegalArgumentException("The lengths of attributes, starts and ends are different");
+        }
+        for (Attribute attribute : attributes) {
+            if (attribute == null) {
+                throw new NullPointerException();
+            }
+        }
+        return overlayAll0(false, attributes, null, starts, ends, starts.length);
+    }
+
+    /**
+     * Applies the {@code attribute} to the range {@code [starts[i], ends[i])} for each {@code i}.
+     *
+     * @param attribute the attribute to apply
+     * @param starts    the starting indices of the ranges, inclusive
+     * @param ends      the ending indices of the ranges, exclusive
+     * @return the result string
+     * @throws IllegalArgumentException  if {@code starts} and {@code ends} have different lengths
+     * @throws IndexOutOfBoundsException if any range is out of range
+     * @see #overlayAll(Attribute[], int[], int[])
+     */
+    public AnsiString overlayAll(Attribute attribute, int[] starts, int[] ends) {
+        if (attribute == null) {
+            throw new NullPointerException();
+        }
+        if (starts.length != ends.length) {
+            throw new IllegalArgumentException("The lengths of starts and ends are different");
+        }
+        return overlayAll0(false, null, attribute, starts, ends, starts.length);
+    }
+
+    /**
+     * Sweeps the boundaries of the ranges in order, and applies the composition of all attributes covering
+     * a segment to the segment at once.
+     *
+     * <p>The composition is maintained in a segment tree indexed by the position of the attribute in the batch,
+     * so the attributes are still applied in the order they are given.
+     * If {@code attributes} is {@code null}, all ranges use {@code single}, and a cover count is used instead.
+     */
+    AnsiString overlayAll0(boolean trimStates, Attribute[] attributes, Attribute single,
+                           int[] starts, int[] ends, int count) {
+        final int length = this.length();
+
+        int eventsCount = 0;
+        long[] events = new long[count * 2];
+        int applyFrom = length;
+        int applyTo = 0;
+
+        for (int i = 0; i < count; i++) {
+            final int start = starts[i];
+            final int end = ends[i];
+            if (start < 0) {
+                throw new IndexOutOfBoundsException("Index out of range: " + start);
+            }
+            if (end > length) {
+                throw new IndexOutOfBoundsException("Index out of range: " + end);
+            }
+            if (start >= end) {
+                continue;
+            }
+
+            final Attribute attribute = attributes != null ? attributes[i] : single;
+            if (attribute.resetMask == 0L && attribute.applyMask == 0L) {
+                continue;
+            }
+            if (attribute.applyMask != 0L) {
+                applyFrom = Math.min(applyFrom, start);
+                applyTo = Math.max(applyTo, end);
+            }
+
+            // Ends are sorted before starts at the same position, which does not matter
+            // since no segment is emitted between them
+            events[eventsCount++] = ((long) start << 32) | ((long) i << 1) | 1L;
+            events[eventsCount++] = ((long) end << 32) | ((long) i << 1);
+        }
+
+        final long[] states = this.states;
+        final int statesFrom = this.statesFrom;
+        final int statesTo = states == null ? 0 : statesFrom + states.length;
+
+        if (eventsCount == 0 || (states == null && applyFrom >= applyTo)) {
+            return this;
+        }
+
+        final int newStatesFrom = states == null ? applyFrom : Math.min(applyFrom, statesFrom);
+        final int newStatesTo = states == null ? applyTo : Math.max(applyTo, statesTo);
+        final long[] newStates = new long[newStatesTo - newStatesFrom];
+        if (states != null) {
+            System.arraycopy(states, 0, newStates, statesFrom - newStatesFrom, states.length);
+        }
+
+        Arrays.sort(events, 0, eventsCount);
+
+        int treeSize = 1;
+        while (treeSize < count) {
+            treeSize <<= 1;
+        }
+        final long[] resetTree = attributes != null ? new long[treeSize * 2] : null;
+        final long[] applyTree = attributes != null ? new long[treeSize * 2] : null;
+        int cover = 0;
+
+        int segmentStart = 0;
+        int e = 0;
+        while (e < eventsCount) {
+            final int position = (int) (events[e] >>> 32);
+
+            if (segmentStart < position) {
+                final long resetMask;
+                final long applyMask;
+                if (attributes != null) {
+                    resetMask = resetTree[1];
+                    applyMask = applyTree[1];
+                } else if (cover > 0) {
+                    resetMask = single.resetMask;
+                    applyMask = single.applyMask;
+                } else {
+                    resetMask = 0L;
+                    applyMask = 0L;
+                }
+                applySegment(newStates, newStatesFrom, statesFrom, statesTo, segmentStart, position, resetMask, applyMask);
+                segmentStart = position;
+            }
+
+            do {
+                final long event = events[e++];
+                final boolean isStart = (event & 1L) != 0;
+                if (attributes == null) {
+                    cover += isStart ? 1 : -1;
+                    continue;
+                }
+
+                final int index = (int) event >>> 1;
+                int node = treeSize + index;
+                resetTree[node] = isStart ? attributes[index].resetMask : 0L;
+                applyTree[node] = isStart ? attributes[index].applyMask : 0L;
+                for (node >>= 1; node > 0; node >>= 1) {
+                    final int left = node << 1;
+                    final int right = left + 1;
+                    resetTree[node] = resetTree[left] | resetTree[right];
+                    applyTree[node] = (applyTree[left] & ~resetTree[right]) | applyTree[right];
+                }
+            } while (e < eventsCount && (int) (events[e] >>> 32) == position);
+        }
+
+        return trimStates ? trimmed(newStates, newStatesFrom) : new AnsiString(plain, newStates, newStatesFrom);
+    }
+
+    /**
+     * Applies the attribute described by the masks to {@code [start, end)}.
+     * Positions outside the original states range have state {@code 0}, so they are filled with {@code applyMask}.
+     * If {@code applyMask} is not {@code 0}, the segment is covered by an attribute that sets a state,
+     * so it is inside the new states range.
+     */
+    private static void applySegment(long[] newStates, int newStatesFrom, int statesFrom, int statesTo,
+                                     int start, int end, long resetMask, long applyMask) {
+        if (resetMask == 0L && applyMask == 0L) {
+            return;
+        }
+
+        final int from = Math.max(start, statesFrom);
+        final int to = Math.min(end, statesTo);
+        if (applyMask == 0L) {
+            // The states outside the original states range stay 0
+            for (int i = from - newStatesFrom, limit = to - newStatesFrom; i < limit; i++) {
+                newStates[i] &= ~resetMask;
+            }
+            return;
+        }
+        if (from >= to || resetMask == -1L) {
+            Arrays.fill(newStates, start - newStatesFrom, end - newStatesFrom, applyMask);
+            return;
+        }
+
+        Arrays.fill(newStates, start - newStatesFrom, from - newStatesFrom, applyMask);
+        for (int i = from - newStatesFrom, limit = to - newStatesFrom; i < limit; i++) {
+            newStates[i] = (newStates[i] & ~resetMask) | applyMask;
+        }
+        Arrays.fill(newStates, to - newStatesFrom, end - newStatesFrom, applyMask);
+    }
+
+    /**
+     * Applies a true color gradient to the characters in range {@code [start, end)}.
+     *
+     * <p>The color of each character is linearly interpolated between {@code fromRgb} and {@code toRgb},
+     * and written directly into the states without creating an {@link Attribute} per character.
+     *
+     * @param target  the color category, {@code AnsiString.Color.category()} or {@code AnsiString.Back.category()}
+     * @param fromRgb the color of the first character, as {@code 0xRRGGBB}
+     * @param toRgb   the color of the last character, as {@code 0xRRGGBB}
+     * @param start   the starting index of the range, inclusive
+     * @param end     the ending index of the range, exclusive
+     * @return the result string
+     * @throws IllegalArgumentException  if {@code target} is not a color category, or a color is out of range
+     * @throws IndexOutOfBoundsException if the range is out of range
+     */
+    public AnsiString overlayGradient(Category target, int fromRgb, int toRgb, int start, int end) {
+        final ColorCategory category = colorCategory(target);
+        final long fromValue = category.trueColorValue(fromRgb);
+        category.trueColorValue(toRgb);
+        checkOverlayRange(start, end);
+
+        if (start == end) {
+            return this;
+        }
+
+        final long[] newStates = statesCovering(start, end);
+        final int newStatesFrom = states == null ? start : Math.min(start, statesFrom);
+        final long mask = category.mask();
+        final int last = end - start - 1;
+
+        for (int k = 0; k <= last; k++) {
+            final long value;
+            if (k == 0) {
+                value = fromValue;
+            } else {
+                final long r = interpolate((fromRgb >> 16) & 0xff, (toRgb >> 16) & 0xff, k, last);
+                final long g = interpolate((fromRgb >> 8) & 0xff, (toRgb >> 8) & 0xff, k, last);
+                final long b = interpolate(fromRgb & 0xff, toRgb & 0xff, k, last);
+                value = (273L + (r << 16 | g << 8 | b)) << category.offset;
+            }
+            final int idx = start + k - newStatesFrom;
+            newStates[idx] = (newStates[idx] & ~mask) | value;
+        }
+        return new AnsiString(plain, newStates, newStatesFrom);
+    }
+
+    private static long interpolate(int from, int to, int k, int last) {
+        return ((long) from * (last - k) + (long) to * k + (last >> 1)) / last;
+    }
+
+    /**
+     * Applies the true color {@code rgbs[i]} to the character at index {@code i}.
+     *
+     * @param target the color category, {@code AnsiString.Color.category()} or {@code AnsiString.Back.category()}
+     * @param rgbs   the colors of the characters, as {@code 0xRRGGBB}
+     * @return the result string
+     * @throws IllegalArgumentException  if {@code target} is not a color category, or a color is out of range
+     * @throws IndexOutOfBoundsException if {@code rgbs} is longer than this string
+     * @see #overlayColors(Category, int[], int)
+     */
+    public AnsiString overlayColors(Category target, int[] rgbs) {
+        return overlayColors(target, rgbs, 0);
+    }
+
+    /**
+     * Applies the true color {@code rgbs[i]} to the character at index {@code start + i},
+     * writing directly into the states without creating an {@link Attribute} per character.
+     *
+     * @param target the color category, {@code AnsiString.Color.category()} or {@code AnsiString.Back.category()}
+     * @param rgbs   the colors of the characters, as {@code 0xRRGGBB}
+     * @param start  the index of the character that {@code rgbs[0]} applies to
+     * @return the result string
+     * @throws IllegalArgumentException  if {@code target} is not a color category, or a color is out of range
+     * @throws IndexOutOfBoundsException if the range {@code [start, start + rgbs.length)} is out of range
+     */
+    public AnsiString overlayColors(Category target, int[] rgbs, int start) {
+        final ColorCategory category = colorCategory(target);
+        final int end = start + rgbs.length;
+        checkOverlayRange(start, end);
+
+        if (start == end) {
+            return this;
+        }
+
+        final long[] newStates = statesCovering(start, end);
+        final int newStatesFrom = states == null ? start : Math.min(start, statesFrom);
+        final long mask = category.mask();
+        for (int k = 0; k < rgbs.length; k++) {
+            final int idx = start + k - newStatesFrom;
+            newStates[idx] = (newStates[idx] & ~mask) | category.trueColorValue(rgbs[k]);
+        }
+        return new AnsiString(plain, newStates, newStatesFrom);
+    }
+
+    private static ColorCategory colorCategory(Category target) {
+        if (!(target instanceof ColorCategory)) {
+            throw new IllegalArgumentException(target + " is not a color category");
+        }
+        return (ColorCategory) target;
+    }
+
+    private void checkOverlayRange(int start, int end) {
+        if (start > end) {
+            throw new IllegalArgumentException("startIndex(" + start + ") > endIndex(" + end + ")");
+        }
+        if (start < 0) {
+            throw new IndexOutOfBoundsException("Index out of range: " + start);
+        }
+        if (end > length()) {
+            throw new IndexOutOfBoundsException("Index out of range: " + end);
+        }
+    }
+
+    /**
+     * Returns a copy of the states that also covers {@code [start, end)},
+     * starting at {@code min(start, statesFrom)}.
+     */
+    private long[] statesCovering(int start, int end) {
+        final long[] states = this.states;
+        if (states == null) {
+            return new long[end - start];
+        }
+        final int newStatesFrom = Math.min(start, statesFrom);
+        final long[] newStates = new long[Math.max(end, statesFrom + states.length) - newStatesFrom];
+        System.arraycopy(states, 0, newStates, statesFrom - newStatesFrom, states.length);
+        return newStates;
+    }
+
+    /**
+     * Returns a string whose character at index {@code i} has the state {@code mapper.applyAsLong(stateAt(i))}.
+     *
+     * <p>The {@code mapper} is called once per run of characters with the same state rather than once per character,
+     * so it should be a pure function of the state.
+     *
+     * @param mapper the function applied to the states
+     * @return the result string
+     */
+    public AnsiString mapStates(LongUnaryOperator mapper) {
+        if (mapper == null) {
+            throw new NullPointerException();
+        }
+
+        final int length = this.length();
+        if (length == 0) {
+            return this;
+        }
+
+        final long[] states = this.states;
+        final int statesFrom = states == null ? 0 : this.statesFrom;
+        final int statesLength = states == null ? 0 : states.length;
+        final long mappedZero = mapper.applyAsLong(0L);
+
+        final long[] newStates;
+        final int newStatesFrom;
+        if (mappedZero == 0L) {
+            if (states == null) {
+                return this;
+            }
+            newStates = new long[statesLength];
+            newStatesFrom = statesFrom;
+        } else {
+            newStates = new long[length];
+            newStatesFrom = 0;
+            Arrays.fill(newStates, 0, statesFrom, mappedZero);
+            Arrays.fill(newStates, statesFrom + statesLength, length, mappedZero);
+        }
+
+        boolean changed = mappedZero != 0L;
+        long lastState = 0L;
+        long lastMapped = mappedZero;
+        for (int i = 0; i < statesLength; i++) {
+            final long state = states[i];
+            if (state != lastState) {
+                lastState = state;
+                lastMapped = mapper.applyAsLong(state);
+            }
+            if (lastMapped != state) {
+                changed = true;
+            }
+            newStates[statesFrom - newStatesFrom + i] = lastMapped;
+        }
+
+        if (!changed) {
+            return this;
+        }
+        return trimmed(newStates, newStatesFrom);
+    }
+
+    /**
+     * Returns a string whose states have all attributes of the {@code category} removed.
+     *
+     * @param category the category to remove, for example {@code AnsiString.Back.category()}
+     * @return the result string
+     */
+    public AnsiString clearCategory(Category category) {
+        return retainMask(~category.mask());
+    }
+
+    /**
+     * Returns a string whose states only have the attributes of the {@code categories}.
+     *
+     * @param categories the categories to keep
+     * @return the result string
+     */
+    public AnsiString keepOnly(Category... categories) {
+        long mask = 0L;
+        for (Category category : categories) {
+            mask |= category.mask();
+        }
+        return retainMask(mask);
+    }
+
+    private AnsiString retainMask(long mask) {
+        final long[] states = this.states;
+        if (states == null) {
+            return this;
+        }
+
+        int i = 0;
+        while (i < states.length && (states[i] & mask) == states[i]) {
+            i++;
+        }
+        if (i == states.length) {
+            return this;
+        }
+
+        final long[] newStates = new long[states.length];
+        System.arraycopy(states, 0, newStates, 0, i);
+        for (; i < states.length; i++) {
+            newStates[i] = states[i] & mask;
+        }
+        return trimmed(newStates, statesFrom);
+    }
+
+    /**
+     * Creates an {@code AnsiString} with the trimmed {@code newStates}.
+     */
+    private AnsiString trimmed(long[] newStates, int newStatesFrom) {
+        final int from = trimStatesInit(newStates);
+        final int statesLength = trimStatesTail(newStates, from);
+        if (statesLength == 0) {
+            return new AnsiString(plain);
+        } else if (statesLength == newStates.length) {
+            return new AnsiString(plain, newStates, newStatesFrom);
+        } else {
+            return new AnsiString(plain, Arrays.copyOfRange(newStates, from, from + statesLength), newStatesFrom + from);
+        }
+    }
+
+    //region Kotlin operators
+
+    public AnsiString plus(Object string) {
+        return concatValueOf(string);
+    }
+
+    /**
+     * Alias of {@link #concat(CharSequence)}, used to overload the plus operator in kotlin.
+     */
+    public AnsiString plus(CharSequence string) {
+        return concat(string);
+    }
+
+    /**
+     * Alias of {@link #concat(AnsiString)}, used to overload the plus operator in kotlin.
+     */
+    public AnsiString plus(AnsiString other) {
+        return concat(other);
+    }
+
+    //endregion
+
+    //region Scala operators
+
+    public AnsiString $plus$plus(Object string) {
+        return concatValueOf(string);
+    }
+
+    /**
+     * Alias of {@link #concat(CharSequence)}, used to overload the `++` operator in kotlin.
+     */
+    public AnsiString $plus$plus(CharSequence string) {
+        return concat(string);
+    }
+
+    /**
+     * Alias of {@link #concat(AnsiString)}, used to overload the `++` operator in scala.
+     */
+    public AnsiString $plus$plus(AnsiString other) {
+        return concat(other);
+    }
+
+    //endregion
+
+    /**
+     * {@inheritDoc}
+     */
+    public int compareTo(AnsiString o) {
+        return toString().compareTo(o.toString());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof AnsiString)) {
+            return false;
+        }
+        return toString().equals(o.toString());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return toString().hashCode() + HASH_MAGIC;
+    }
+
+    private transient String encoded = null;
+
+    /**
+     * The cached encodings of the strings this string was concatenated from, if all of them were cached,
+     * so that {@link #getEncoded()} can stitch them instead of encoding the states.
+     * Cleared once {@link #encoded} is set.
+     */
+    private transient EncodedParts encodedParts = null;
+
+    /**
+     * Get the encoded string (including ANSI escape sequence represented by {@link #states }).
+     *
+     * <p>Results are calculated when it is needed. If states is {@code null}, then this method
+     * will return plain text directly.
+     *
+     * @return the encoded string
+     */
+    public String getEncoded() {
+        String res = encoded;
+        if (res != null) {
+            return res;
+        }
+
+        final String plain = this.plain;
+        if (states == null) {
+            this.encoded = plain;
+            return plain;
+        }
+
+        final EncodedParts encodedParts = this.encodedParts;
+        res = encodedParts != null ? stitchEncoded(encodedParts) : encode(ColorLevel.TRUE_COLOR);
+        this.encoded = res;
+        this.encodedParts = null;
+        return res;
+    }
+
+    /**
+     * Get the encoded string, encoding large strings in parallel in the {@linkplain ForkJoinPool#commonPool() common pool}.
+     *
+     * @return the encoded string
+     * @see #getEncodedParallel(ForkJoinPool)
+     */
+    public String getEncodedParallel() {
+        return getEncodedParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Get the encoded string, encoding large strings in parallel in the given {@code ForkJoinPool}.
+     *
+     * <p>The string is split into chunks at boundaries of runs of equal states. Each chunk is encoded independently
+     * starting from the state before it, and the encoded chunks are joined into one exact-size builder.
+     * The result is the same as {@link #getEncoded()}, and is cached in the same way.
+     *
+     * @param pool the pool used to encode the chunks
+     * @return the encoded string
+     */
+    public String getEncodedParallel(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new NullPointerException();
+        }
+
+        String res = encoded;
+        if (res != null) {
+            return res;
+        }
+
+        final int length = this.length();
+        if (states == null || encodedParts != null || length < 2 * ParallelEncoder.CHUNK_SIZE || pool.getParallelism() <= 1) {
+            return getEncoded();
+        }
+
+        final int[] bounds = new int[(length + ParallelEncoder.CHUNK_SIZE - 1) / ParallelEncoder.CHUNK_SIZE + 1];
+        int chunks = 0;
+        int begin = 0;
+        while (begin < length) {
+            int end;
+            if (length - begin <= ParallelEncoder.CHUNK_SIZE) {
                 end = length;
             } else {
-                AttributeWithRange ar = (AttributeWithRange) oa;
-                attr = ar.attribute;
-                start = ar.start;
-                end = ar.end < 0 ? length : ar.end;
-            }
+                // Move the end to the next run boundary, but split a run that is longer than a chunk
+                end = begin + ParallelEncoder.CHUNK_SIZE;
+                end = runLimit(end - 1, end + Math.min(ParallelEncoder.CHUNK_SIZE, length - end));
+            }
+            bounds[++chunks] = end;
+            begin = end;
+        }
+
+        final String[] parts = new String[chunks];
+        pool.invoke(new ParallelEncoder(this, bounds, parts, 0, chunks));
+
+        long encodedLength = 0L;
+        for (String part : parts) {
+            encodedLength += part.length();
+        }
+        if (encodedLength > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Encoded length exceeds the maximum string length: " + encodedLength);
+        }
+
+        final StringBuilder builder = new StringBuilder((int) encodedLength);
+        for (String part : parts) {
+            builder.append(part);
+        }
+        res = builder.toString();
+        this.encoded = res;
+        return res;
+    }
+
+    /**
+     * Encodes the chunks {@code [fromChunk, toChunk)}, chunk {@code i} is {@code [bounds[i], bounds[i + 1])}
+     * and its encoded text is stored in {@code parts[i]}.
+     */
+    private static final class ParallelEncoder extends RecursiveAction {
+        private static final long serialVersionUID = 0L;
+
+        static final int CHUNK_SIZE = 1 << 16;
+
+        private final AnsiString string;
+        private final int[] bounds;
+        private final String[] parts;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ParallelEncoder(AnsiString string, int[] bounds, String[] parts, int fromChunk, int toChunk) {
+            this.string = string;
+            this.bounds = bounds;
+            this.parts = parts;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (toChunk - fromChunk > 1) {
+                final int mid = (fromChunk + toChunk) >>> 1;
+                invokeAll(
+                        new ParallelEncoder(string, bounds, parts, fromChunk, mid),
+                        new ParallelEncoder(string, bounds, parts, mid, toChunk)
+                );
+                return;
+            }
+
+            final int begin = bounds[fromChunk];
+            final int end = bounds[fromChunk + 1];
+            final long entryState = begin == 0 ? 0L : string.state0(begin - 1);
+            final boolean close = end == string.length();
+
+            final StringBuilder output = new StringBuilder(
+                    string.encodedLength(begin, end, entryState, close, ColorLevel.TRUE_COLOR));
+            string.encode(begin, end, entryState, close, ColorLevel.TRUE_COLOR, output);
+            parts[fromChunk] = output.toString();
+        }
+    }
+
+    /**
+     * Returns the length of the encoded string, without building the encoded string.
+     *
+     * @return the length of {@link #getEncoded()}
+     * @throws OutOfMemoryError if the encoded string would be longer than {@link Integer#MAX_VALUE}
+     */
+    public int encodedLength() {
+        final String encoded = this.encoded;
+        if (encoded != null) {
+            return encoded.length();
+        }
+        return encodedLength(0, length(), 0L, true, ColorLevel.TRUE_COLOR);
+    }
+
+    /**
+     * Returns the longest prefix of this string whose encoded string,
+     * including the escape sequences that reset the state at the end, is not longer than {@code maxChars}.
+     *
+     * <p>Surrogate pairs are never split.
+     *
+     * @param maxChars the maximum length of the encoded string
+     * @return the longest prefix that fits in the budget
+     * @throws IllegalArgumentException if {@code maxChars} is negative
+     */
+    public AnsiString truncateToEncodedLength(int maxChars) {
+        if (maxChars < 0) {
+            throw new IllegalArgumentException("maxChars(" + maxChars + ") < 0");
+        }
+        return prefix(truncateLimit(maxChars, false));
+    }
+
+    /**
+     * Returns the longest prefix of this string whose encoded string encoded in UTF-8,
+     * including the escape sequences that reset the state at the end, is not longer than {@code maxBytes}.
+     *
+     * <p>Surrogate pairs are never split.
+     *
+     * @param maxBytes the maximum length in bytes of the UTF-8 encoded string
+     * @return the longest prefix that fits in the budget
+     * @throws IllegalArgumentException if {@code maxBytes} is negative
+     */
+    public AnsiString truncateToUtf8Bytes(int maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes(" + maxBytes + ") < 0");
+        }
+        return prefix(truncateLimit(maxBytes, true));
+    }
+
+    private AnsiString prefix(int end) {
+        if (end == length()) {
+            return this;
+        }
+        if (end == 0) {
+            return EMPTY;
+        }
+        return substring(0, end);
+    }
+
+    /**
+     * Returns the end index of the longest prefix whose encoding fits in {@code budget}.
+     *
+     * <p>Escape sequences only contain ASCII characters, so they take one byte per {@code char} in UTF-8.
+     */
+    private int truncateLimit(int budget, boolean utf8) {
+        final String plain = this.plain;
+        final int length = plain.length();
+
+        long currentState = 0L;
+        long used = 0L;
+
+        int i = 0;
+        while (i < length) {
+            final int runLimit = runLimit(i, length);
+            final long state = state0(i);
+            final long transition = TransitionCache.length(currentState, state);
+            final long close = TransitionCache.length(state, 0L);
+
+            long runSize;
+            if (!utf8) {
+                final long available = budget - used - transition - close;
+                if (available < runLimit - i) {
+                    return available <= 0 ? i : surrogateBoundary(i + (int) available);
+                }
+                runSize = runLimit - i;
+            } else {
+                runSize = 0L;
+                int j = i;
+                while (j < runLimit) {
+                    final char ch = plain.charAt(j);
+                    int charCount = 1;
+                    int bytes;
+                    if (ch < 0x80) {
+                        bytes = 1;
+                    } else if (ch < 0x800) {
+                        bytes = 2;
+                    } else if (!Character.isSurrogate(ch)) {
+                        bytes = 3;
+                    } else if (Character.isHighSurrogate(ch) && j + 1 < runLimit && Character.isLowSurrogate(plain.charAt(j + 1))) {
+                        charCount = 2;
+                        bytes = 4;
+                    } else {
+                        // Unpaired surrogates are encoded as '?'
+                        bytes = 1;
+                    }
 
-            if (end > length) {
-                throw new IndexOutOfBoundsException("Index out of range: " + end);
+                    if (used + transition + runSize + bytes + close > budget) {
+                        return j;
+                    }
+                    runSize += bytes;
+                    j += charCount;
+                }
             }
 
-            for (int i = start; i < end; i++) {
-                newStates[i] = attr.transform(newStates[i]);
-            }
+            used += transition + runSize;
+            currentState = state;
+            i = runLimit;
         }
+        return length;
+    }
 
-        if (trimStates) {
-            final int newStatesFrom = trimStatesInit(newStates);
-            final int newStatesLength = trimStatesTail(newStates, newStatesFrom);
-
-            if (newStatesLength == 0) {
-                return new AnsiString(plain);
-            } else if (newStatesLength == newStates.length) {
-                return new AnsiString(plain, newStates, 0);
-            } else {
-                long[] ss = Arrays.copyOfRange(newStates, newStatesFrom, newStatesFrom + newStatesLength);
-                return new AnsiString(plain, ss, statesFrom);
-            }
-        } else {
-            return new AnsiString(plain, newStates, 0);
+    private int surrogateBoundary(int index) {
+        final String plain = this.plain;
+        if (index > 0 && index < plain.length()
+                && Character.isHighSurrogate(plain.charAt(index - 1))
+                && Character.isLowSurrogate(plain.charAt(index))) {
+            return index - 1;
         }
+        return index;
     }
 
-    //region Kotlin operators
+    /**
+     * Get the encoded string for a terminal that supports the given {@link ColorLevel}.
+     *
+     * <p>Colors the terminal cannot display are replaced with the nearest color it supports,
+     * the colors are mapped when the state changes, so no intermediate {@code AnsiString} is created.
+     *
+     * @param level the color capability of the target terminal
+     * @return the encoded string
+     * @see #getEncoded()
+     */
+    public String getEncoded(ColorLevel level) {
+        if (level == null) {
+            throw new NullPointerException();
+        }
+        if (level == ColorLevel.TRUE_COLOR) {
+            return getEncoded();
+        }
+        if (states == null || level == ColorLevel.NO_COLOR) {
+            return plain;
+        }
+        return encode(level);
+    }
 
-    public AnsiString plus(Object string) {
-        return concat(AnsiString.valueOf(string));
+    private String encode(ColorLevel level) {
+        final int length = this.length();
+        final StringBuilder output = new StringBuilder(encodedLength(0, length, 0L, true, level));
+        encode(0, length, 0L, true, level, output);
+        return output.toString();
     }
 
     /**
-     * Alias of {@link #concat(CharSequence)}, used to overload the plus operator in kotlin.
+     * Returns the state at {@code index} without checking bounds.
      */
-    public AnsiString plus(CharSequence string) {
-        return concat(AnsiString.valueOf(string));
+    long state0(int index) {
+        final long[] states = this.states;
+        if (states == null) {
+            return 0L;
+        }
+        final int idx = index - statesFrom;
+        return (idx < 0 || idx >= states.length) ? 0L : states[idx];
     }
 
     /**
-     * Alias of {@link #concat(AnsiString)}, used to overload the plus operator in kotlin.
+     * Returns the end index of the run of equal states containing {@code index}, but not greater than {@code limit}.
      */
-    public AnsiString plus(AnsiString other) {
-        return concat(other);
-    }
-
-    //endregion
+    int runLimit(int index, int limit) {
+        final long[] states = this.states;
+        if (states == null) {
+            return limit;
+        }
 
-    //region Scala operators
+        final int statesFrom = this.statesFrom;
+        final int statesLimit = statesFrom + states.length;
+        if (index < statesFrom) {
+            return Math.min(statesFrom, limit);
+        }
+        if (index >= statesLimit) {
+            return limit;
+        }
 
-    public AnsiString $plus$plus(Object string) {
-        return concat(AnsiString.valueOf(string));
+        final int end = Math.min(statesLimit, limit);
+        final long state = states[index - statesFrom];
+        int i = index + 1;
+        while (i < end && states[i - statesFrom] == state) {
+            i++;
+        }
+        return i;
     }
 
     /**
-     * Alias of {@link #concat(CharSequence)}, used to overload the `++` operator in kotlin.
+     * Returns the length of the encoded text in range {@code [begin, end)}.
+     *
+     * @param entryState the (downsampled) state of the terminal before the range
+     * @param close      if {@code true}, include the escape sequences that reset the state at the end of the range
      */
-    public AnsiString $plus$plus(CharSequence string) {
-        return concat(AnsiString.valueOf(string));
+    int encodedLength(int begin, int end, long entryState, boolean close, ColorLevel level) {
+        long currentState = entryState;
+        long res = end - begin;
+
+        int i = begin;
+        while (i < end) {
+            final int runLimit = runLimit(i, end);
+            final long state = level.downsample(state0(i));
+            if (state != currentState) {
+                res += TransitionCache.length(currentState, state);
+                currentState = state;
+            }
+            i = runLimit;
+        }
+
+        if (close) {
+            res += TransitionCache.length(currentState, 0L);
+        }
+        if (res > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Encoded length exceeds the maximum string length: " + res);
+        }
+        return (int) res;
     }
 
     /**
-     * Alias of {@link #concat(AnsiString)}, used to overload the `++` operator in scala.
+     * Appends the encoded text in range {@code [begin, end)} to {@code output}.
+     *
+     * @param entryState the (downsampled) state of the terminal before the range
+     * @param close      if {@code true}, reset the state at the end of the range
+     * @return the (downsampled) state of the terminal after the range
+     * @see #encodedLength(int, int, long, boolean, ColorLevel)
      */
-    public AnsiString $plus$plus(AnsiString other) {
-        return concat(other);
-    }
+    long encode(int begin, int end, long entryState, boolean close, ColorLevel level, StringBuilder output) {
+        final String plain = this.plain;
+        long currentState = entryState;
 
-    //endregion
+        int i = begin;
+        while (i < end) {
+            final int runLimit = runLimit(i, end);
+            final long state = level.downsample(state0(i));
+            if (state != currentState) {
+                TransitionCache.append(currentState, state, output);
+                currentState = state;
+            }
+            output.append(plain, i, runLimit);
+            i = runLimit;
+        }
 
-    /**
-     * {@inheritDoc}
-     */
-    public int compareTo(AnsiString o) {
-        return toString().compareTo(o.toString());
+        if (close) {
+            TransitionCache.append(currentState, 0L, output);
+            currentState = 0L;
+        }
+        return currentState;
     }
 
     /**
      * {@inheritDoc}
+     *
+     * @see #getEncoded()
      */
     @Override
-    public boolean equals(Object o) {
-        if (!(o instanceof AnsiString)) {
-            return false;
-        }
-        return toString().equals(o.toString());
+    public String toString() {
+        return getEncoded();
     }
 
     /**
-     * {@inheritDoc}
+     * Appends the characters and states of this string to the {@code builder}.
+     *
+     * @see AnsiStringBuilder#append(AnsiString)
      */
     @Override
-    public int hashCode() {
-        return toString().hashCode() + HASH_MAGIC;
+    public void formatTo(AnsiStringBuilder builder) {
+        builder.append(this);
     }
 
-    private transient String encoded = null;
-
     /**
-     * Get the encoded string (including ANSI escape sequence represented by {@link #states }).
+     * An action performed on a run of characters with equal states.
      *
-     * <p>Results are calculated when it is needed. If states is {@code null}, then this method
-     * will return plain text directly.
+     * @see #forEachRun(RunConsumer)
+     */
+    @FunctionalInterface
+    public interface RunConsumer {
+        /**
+         * Performs the action on the run {@code [start, end)}.
+         *
+         * @param start the starting index of the run, inclusive
+         * @param end   the ending index of the run, exclusive
+         * @param state the state of the characters in the run
+         */
+        void accept(int start, int end, long state);
+    }
+
+    /**
+     * A run of characters with equal states.
      *
-     * @return the encoded string
+     * @see #runs()
+     * @see #runSpliterator()
      */
-    public String getEncoded() {
-        String res = encoded;
-        if (res != null) {
-            return res;
-        }
+    public static final class Run {
+        int start;
+        int end;
+        long state;
 
-        final String plain = this.plain;
-        final long[] states = this.states;
-        if (states == null) {
-            this.encoded = plain;
-            return plain;
+        Run(int start, int end, long state) {
+            this.start = start;
+            this.end = end;
+            this.state = state;
         }
 
-        final int length = this.length();
-        final int statesFrom = this.statesFrom;
-        final int statesLimit = statesFrom + states.length;
-
-        long currentState = 0;
+        /**
+         * Returns the starting index of the run, inclusive.
+         */
+        public int start() {
+            return start;
+        }
 
-        StringBuilder builder = new StringBuilder(length * 2);
+        /**
+         * Returns the ending index of the run, exclusive.
+         */
+        public int end() {
+            return end;
+        }
 
-        for (int i = 0; i < length; i++) {
-            final long state = (i >= statesFrom && i < statesLimit) ? states[i - statesFrom] : 0;
-            if (state != currentState) {
-                Attribute.emitAnsiCodes0(currentState, state, builder);
-                currentState = state;
-            }
-            builder.append(plain.charAt(i));
+        /**
+         * Returns the state of the characters in the run.
+         */
+        public long state() {
+            return state;
         }
 
-        Attribute.emitAnsiCodes0(currentState, 0, builder);
-        res = builder.toString();
-        this.encoded = res;
-        return res;
+        @Override
+        public String toString() {
+            return "Run[start=" + start + ", end=" + end + ", state=" + state + "]";
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * The color capability of a terminal, used to downsample colors when encoding an {@code AnsiString}.
      *
-     * @see #getEncoded()
+     * @see #getEncoded(ColorLevel)
      */
-    @Override
-    public String toString() {
-        return getEncoded();
+    public enum ColorLevel {
+        /**
+         * Supports 24-bit true colors, colors are encoded as is.
+         */
+        TRUE_COLOR {
+            @Override
+            long downsample(long state) {
+                return state;
+            }
+        },
+
+        /**
+         * Supports the 256 xterm colors, true colors are mapped to the nearest xterm color.
+         */
+        ANSI_256 {
+            @Override
+            long downsample(long state) {
+                return Palette.mapColors(state, false);
+            }
+        },
+
+        /**
+         * Supports the 16 basic colors, xterm colors and true colors are mapped to the nearest basic color.
+         */
+        ANSI_16 {
+            @Override
+            long downsample(long state) {
+                return Palette.mapColors(state, true);
+            }
+        },
+
+        /**
+         * Does not support colors, but supports bold, underlined and reversed text.
+         */
+        MONOCHROME {
+            @Override
+            long downsample(long state) {
+                return state & ~(Color.category.mask() | Back.category.mask());
+            }
+        },
+
+        /**
+         * Does not support any ANSI escape sequence, only the plain text is output.
+         */
+        NO_COLOR {
+            @Override
+            long downsample(long state) {
+                return 0L;
+            }
+        };
+
+        abstract long downsample(long state);
     }
 
     /**
@@ -1240,6 +2877,9 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
          * across the entire length of that string.
          */
         public final AnsiString overlay(CharSequence string) {
+            if (this instanceof Attribute) {
+                return LiteralOverlay.overlay((Attribute) this, string);
+            }
             return AnsiString.parse(string).overlay(this);
         }
 
@@ -1264,31 +2904,55 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
             this.applyMask = applyMask;
         }
 
-        static void emitAnsiCodes0(long currentState, long nextState, Appendable output) {
-            try {
-                if (currentState != nextState) {
+        static void emitAnsiCodes0(long currentState, long nextState, StringBuilder output) {
+            if (currentState != nextState) {
 
-                    int hardOffMask = Bold.category.mask();
+                long hardOffMask = Bold.category.mask();
 
-                    long currentState2;
-                    if ((currentState & ~nextState & hardOffMask) != 0) {
-                        output.append(RESET);
-                        currentState2 = 0L;
-                    } else {
-                        currentState2 = currentState;
-                    }
+                long currentState2;
+                if ((currentState & ~nextState & hardOffMask) != 0) {
+                    output.append(RESET);
+                    currentState2 = 0L;
+                } else {
+                    currentState2 = currentState;
+                }
 
-                    for (Category cat : Category.categories()) {
-                        if ((cat.mask() & currentState2) != (cat.mask() & nextState)) {
-                            output.append(cat.lookupEscape(nextState & cat.mask()));
-                        }
+                for (Category cat : Category.categories()) {
+                    if ((cat.mask() & currentState2) != (cat.mask() & nextState)) {
+                        cat.appendEscape(nextState & cat.mask(), output);
                     }
                 }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
             }
         }
 
+        /**
+         * Returns the length of the ANSI escape sequences emitted by {@link #emitAnsiCodes(long, long)}.
+         */
+        static int ansiCodesLength(long currentState, long nextState) {
+            if (currentState == nextState) {
+                return 0;
+            }
+
+            long hardOffMask = Bold.category.mask();
+
+            int length = 0;
+            long currentState2;
+            if ((currentState & ~nextState & hardOffMask) != 0) {
+                length += RESET.length();
+                currentState2 = 0L;
+            } else {
+                currentState2 = currentState;
+            }
+
+            for (Category cat : Category.categories()) {
+                final long mask = cat.mask();
+                if ((mask & currentState2) != (mask & nextState)) {
+                    length += cat.lookupEscapeLength(nextState & mask);
+                }
+            }
+            return length;
+        }
+
         public static String emitAnsiCodes(long currentState, long nextState) {
             StringBuilder builder = new StringBuilder();
             emitAnsiCodes0(currentState, nextState, builder);
@@ -1311,10 +2975,7 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
         }
 
         public static Attribute of(Attribute attribute1, Attribute attribute2) {
-            if (attribute1.equals(attribute2)) {
-                return attribute1;
-            }
-            return of(new Attribute[]{attribute1, attribute2});
+            return Attrs.compose(attribute1, attribute2);
         }
 
         public static Attribute of(Attribute... attributes) {
@@ -1323,117 +2984,30 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
                 return Attrs.EMPTY;
             }
             if (attributesLength == 1) {
-                return attributes[0];
+                return of(attributes[0]);
             }
 
-            TreeSet<Attr> output = new TreeSet<>();
             long resetMask = 0L;
             long applyMask = 0L;
-
-            for (int i = attributesLength - 1; i >= 0; i--) {
-                final Attribute attr = attributes[i];
-                if (attr instanceof Attrs) {
-                    for (Attr attribute : ((Attrs) attr).attributes) {
-                        if ((attribute.resetMask & ~resetMask) != 0) {
-                            if ((attribute.applyMask & resetMask) == 0) {
-                                applyMask = applyMask | attribute.applyMask;
-                            }
-                            resetMask = resetMask | attribute.resetMask;
-                            output.add(attribute);
-                        }
-                    }
-                } else {
-                    if ((attr.resetMask & ~resetMask) != 0) {
-                        if ((attr.applyMask & resetMask) == 0) {
-                            applyMask = applyMask | attr.applyMask;
-                        }
-                        resetMask = resetMask | attr.resetMask;
-                        output.add((Attr) attr);
-                    }
-                }
-            }
-
-            final int outputSize = output.size();
-            if (outputSize == 0) {
-                return Attrs.EMPTY;
-            }
-            if (outputSize == 1) {
-                return output.first();
+            for (Attribute attribute : attributes) {
+                applyMask = (applyMask & ~attribute.resetMask) | attribute.applyMask;
+                resetMask |= attribute.resetMask;
             }
-
-            return new Attrs(resetMask, applyMask, output.toArray(new Attr[outputSize]));
+            return Attrs.of(resetMask, applyMask);
         }
 
         public static Attribute of(List<? extends Attribute> list) {
-            final ListIterator<? extends Attribute> it = list.listIterator(list.size());
-            return of(new Iterator<Attribute>() {
-                public boolean hasNext() {
-                    return it.hasPrevious();
-                }
-
-                public Attribute next() {
-                    return it.previous();
-                }
-
-                public void remove() {
-                    throw new UnsupportedOperationException("remove");
-                }
-            });
+            return of((Iterable<? extends Attribute>) list);
         }
 
-        @SuppressWarnings("unchecked")
         public static Attribute of(Iterable<? extends Attribute> attributes) {
-            if (attributes instanceof List<?>) {
-                return of(((List<Attribute>) attributes));
-            }
-            LinkedList<Attribute> l = new LinkedList<>();
-            for (Attribute attribute : attributes) {
-                l.add(attribute);
-            }
-            return of(l);
-        }
-
-        private static Attribute of(Iterator<? extends Attribute> reverseIterator) {
-            if (!reverseIterator.hasNext()) {
-                return Attrs.EMPTY;
-            }
-
-            TreeSet<Attr> output = new TreeSet<>();
             long resetMask = 0L;
             long applyMask = 0L;
-
-            while (reverseIterator.hasNext()) {
-                final Attribute attr = reverseIterator.next();
-                if (attr instanceof Attrs) {
-                    for (Attr attribute : ((Attrs) attr).attributes) {
-                        if ((attribute.resetMask & ~resetMask) != 0) {
-                            if ((attribute.applyMask & resetMask) == 0) {
-                                applyMask = applyMask | attribute.applyMask;
-                            }
-                            resetMask = resetMask | attribute.resetMask;
-                            output.add(attribute);
-                        }
-                    }
-                } else {
-                    if ((attr.resetMask & ~resetMask) != 0) {
-                        if ((attr.applyMask & resetMask) == 0) {
-                            applyMask = applyMask | attr.applyMask;
-                        }
-                        resetMask = resetMask | attr.resetMask;
-                        output.add((Attr) attr);
-                    }
-                }
-            }
-
-            final int outputSize = output.size();
-            if (outputSize == 0) {
-                return Attrs.EMPTY;
-            }
-            if (outputSize == 1) {
-                return output.first();
+            for (Attribute attribute : attributes) {
+                applyMask = (applyMask & ~attribute.resetMask) | attribute.applyMask;
+                resetMask |= attribute.resetMask;
             }
-
-            return new Attrs(resetMask, applyMask, output.toArray(new Attr[outputSize]));
+            return Attrs.of(resetMask, applyMask);
         }
 
         public abstract Attribute concat(Attribute other);
@@ -1526,7 +3100,7 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
      * Represents the removal of all ansi text decoration. Doesn't fit into any
      * convenient category, since it applies to them all.
      */
-    public static final Attribute Reset = new Attr.Escape("Reset", "\u001b[0m", Integer.MAX_VALUE, 0);
+    public static final Attribute Reset = new Attr.Escape("Reset", "\u001b[0m", -1L, 0);
 
     /**
      * Attributes to turn text bold/bright or disable it.
@@ -1537,6 +3111,13 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
 
         static final Category category = new Category("Bold", 0, 1);
 
+        /**
+         * Returns the category of the attributes in this class.
+         */
+        public static Category category() {
+            return category;
+        }
+
         public static final Attribute On = category.makeAttr("On", "\u001b[1m", 1);
         public static final Attribute Off = category.makeNoneAttr("Off", 0);
     }
@@ -1550,6 +3131,13 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
 
         static final Category category = new Category("Reversed", 1, 1);
 
+        /**
+         * Returns the category of the attributes in this class.
+         */
+        public static Category category() {
+            return category;
+        }
+
         public static final Attribute On = category.makeAttr("On", "\u001b[7m", 1);
         public static final Attribute Off = category.makeAttr("Off", "\u001b[27m", 0);
     }
@@ -1563,6 +3151,13 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
 
         static final Category category = new Category("Underlined", 2, 1);
 
+        /**
+         * Returns the category of the attributes in this class.
+         */
+        public static Category category() {
+            return category;
+        }
+
         public static final Attribute On = category.makeAttr("On", "\u001b[4m", 1);
         public static final Attribute Off = category.makeAttr("Off", "\u001b[24m", 0);
     }
@@ -1576,6 +3171,13 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
 
         static final ColorCategory category = new ColorCategory("Color", 3, 25, 38);
 
+        /**
+         * Returns the category of the attributes in this class.
+         */
+        public static Category category() {
+            return category;
+        }
+
         public static final Attribute Reset =
                 category.makeAttr("Reset", "\u001b[39m", 0);
         public static final Attribute Black =
@@ -1626,6 +3228,13 @@ public final class AnsiString implements Serializable, Comparable<AnsiString> {
 
         static final ColorCategory category = new ColorCategory("Back", 28, 25, 48);
 
+        /**
+         * Returns the category of the attributes in this class.
+         */
+        public static Category category() {
+            return category;
+        }
+
         public static final Attribute Reset =
                 category.makeAttr("Reset", "\u001b[49m", 0);
         public static final Attribute Black =
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.Arrays;
+
+/**
+ * A mutable sequence of characters and their states, used to build {@link AnsiString}.
+ *
+ * <p>Appending to a builder is amortized constant time per character, unlike repeated {@link AnsiString#concat(AnsiString)},
+ * which copies the whole string every time. The states array is only allocated when a styled character is added.
+ *
+ * <p>Instances of this class are not thread safe.
+ */
+public final class AnsiStringBuilder {
+    private static final char[] EMPTY_CHARS = new char[0];
+
+    private char[] chars;
+
+    /**
+     * The states of the characters, or {@code null} if all states are {@code 0}.
+     * If not {@code null}, its length is the same as {@link #chars}.
+     */
+    private long[] states;
+
+    private int length;
+
+    /**
+     * Constructs an empty builder with an initial capacity of 16 characters.
+     */
+    public AnsiStringBuilder() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty builder with the specified initial capacity.
+     *
+     * @param capacity the initial capacity
+     * @throws IllegalArgumentException if the {@code capacity} is negative
+     */
+    public AnsiStringBuilder(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity(" + capacity + ") < 0");
+        }
+        this.chars = capacity == 0 ? EMPTY_CHARS : new char[capacity];
+    }
+
+    /**
+     * Constructs a builder initialized to the contents of the specified {@code AnsiString}.
+     *
+     * @param string the initial contents of the builder
+     */
+    public AnsiStringBuilder(AnsiString string) {
+        this(string.length() + 16);
+        append(string);
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError();
+        }
+        final int oldCapacity = chars.length;
+        if (minCapacity > oldCapacity) {
+            int newCapacity = oldCapacity * 2 + 2;
+            if (newCapacity - minCapacity < 0) {
+                newCapacity = minCapacity;
+            }
+            if (newCapacity < 0) {
+                newCapacity = Integer.MAX_VALUE - 8;
+            }
+            chars = Arrays.copyOf(chars, newCapacity);
+            if (states != null) {
+                states = Arrays.copyOf(states, newCapacity);
+            }
+        }
+    }
+
+    private long[] states() {
+        long[] states = this.states;
+        if (states == null) {
+            this.states = states = new long[chars.length];
+        }
+        return states;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index out of range: " + index);
+        }
+    }
+
+    private void checkRange(int start, int end, int length) {
+        if (start > end) {
+            throw new IllegalArgumentException("startIndex(" + start + ") > endIndex(" + end + ")");
+        }
+        if (start < 0) {
+            throw new IndexOutOfBoundsException("Index out of range: " + start);
+        }
+        if (end > length) {
+            throw new IndexOutOfBoundsException("Index out of range: " + end);
+        }
+    }
+
+    /**
+     * Returns the number of characters in this builder.
+     *
+     * @return the number of characters in this builder
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns {@code true} if, and only if, {@link #length()} is {@code 0}.
+     *
+     * @return {@code true} if {@link #length()} is {@code 0}, otherwise {@code false}
+     */
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Returns the {@code char} at the specified index.
+     *
+     * @param index the index of the {@code char}
+     * @return the {@code char} at the specified index
+     * @throws IndexOutOfBoundsException if the {@code index} is negative or not less than {@link #length()}
+     */
+    public char charAt(int index) {
+        checkIndex(index);
+        return chars[index];
+    }
+
+    /**
+     * Returns the state of the character at the specified index.
+     *
+     * @param index the index of the character
+     * @return the state of the character at the specified index
+     * @throws IndexOutOfBoundsException if the {@code index} is negative or not less than {@link #length()}
+     */
+    public long stateAt(int index) {
+        checkIndex(index);
+        return states == null ? 0L : states[index];
+    }
+
+    /**
+     * Sets the length of this builder. If the new length is greater than the current length,
+     * the builder is padded with {@code '\0'} characters with state {@code 0}.
+     *
+     * @param newLength the new length
+     * @throws IndexOutOfBoundsException if the {@code newLength} is negative
+     */
+    public void setLength(int newLength) {
+        if (newLength < 0) {
+            throw new IndexOutOfBoundsException("Index out of range: " + newLength);
+        }
+        ensureCapacity(newLength);
+        if (newLength > length) {
+            Arrays.fill(chars, length, newLength, '\0');
+            if (states != null) {
+                Arrays.fill(states, length, newLength, 0L);
+            }
+        }
+        length = newLength;
+    }
+
+    /**
+     * Appends the characters and states of the {@code AnsiString} to this builder.
+     *
+     * @param string the {@code AnsiString} to append
+     * @return this builder
+     */
+    public AnsiStringBuilder append(AnsiString string) {
+        if (string == null) {
+            string = AnsiString.valueOf((Object) null);
+        }
+        return append(string, 0, string.length());
+    }
+
+    /**
+     * Appends the characters and states in range {@code [start, end)} of the {@code AnsiString} to this builder.
+     *
+     * @param string the {@code AnsiString} to append
+     * @param start  the starting index of the range, inclusive
+     * @param end    the ending index of the range, exclusive
+     * @return this builder
+     * @throws IndexOutOfBoundsException if {@code start} is negative, or {@code end} is greater than
+     *                                   the length of {@code string}
+     * @throws IllegalArgumentException  if {@code start} is greater than {@code end}
+     */
+    public AnsiStringBuilder append(AnsiString string, int start, int end) {
+        checkRange(start, end, string.length());
+
+        final int count = end - start;
+        ensureCapacity(length + count);
+        write(string, start, end, length);
+        length += count;
+        return this;
+    }
+
+    /**
+     * Copies the characters and states in range {@code [start, end)} of {@code string} to {@code destination}.
+     */
+    private void write(AnsiString string, int start, int end, int destination) {
+        final int count = end - start;
+        string.plain.getChars(start, end, chars, destination);
+
+        final long[] ss = string.states;
+        final int from = ss == null ? end : Math.max(start, string.statesFrom);
+        final int to = ss == null ? end : Math.min(end, string.statesFrom + ss.length);
+        if (from < to) {
+            final long[] states = states();
+            Arrays.fill(states, destination, destination + from - start, 0L);
+            System.arraycopy(ss, from - string.statesFrom, states, destination + from - start, to - from);
+            Arrays.fill(states, destination + to - start, destination + count, 0L);
+        } else if (states != null) {
+            Arrays.fill(states, destination, destination + count, 0L);
+        }
+    }
+
+    /**
+     * Appends the styled representation of the {@code AnsiFormattable} to this builder.
+     *
+     * @param formattable the object to append
+     * @return this builder
+     * @see AnsiFormattable#formatTo(AnsiStringBuilder)
+     */
+    public AnsiStringBuilder append(AnsiFormattable formattable) {
+        if (formattable == null) {
+            return append(AnsiString.valueOf((Object) null));
+        }
+        formattable.formatTo(this);
+        return this;
+    }
+
+    /**
+     * Appends the plain text of the {@code CharSequence} with the states set by {@code attribute}.
+     *
+     * <p>The {@code CharSequence} is not parsed, escape sequences in it are appended as is.
+     *
+     * @param plain     the plain text to append
+     * @param attribute the attribute applied to the appended characters
+     * @return this builder
+     */
+    public AnsiStringBuilder append(CharSequence plain, AnsiString.Attribute attribute) {
+        if (attribute == null) {
+            throw new NullPointerException();
+        }
+        if (plain == null) {
+            plain = "null";
+        }
+
+        final int count = plain.length();
+        final int length = this.length;
+        ensureCapacity(length + count);
+
+        if (plain instanceof String) {
+            ((String) plain).getChars(0, count, chars, length);
+        } else {
+            for (int i = 0; i < count; i++) {
+                chars[length + i] = plain.charAt(i);
+            }
+        }
+
+        final long state = attribute.transform(0L);
+        if (state != 0L || states != null) {
+            Arrays.fill(states(), length, length + count, state);
+        }
+
+        this.length = length + count;
+        return this;
+    }
+
+    /**
+     * Appends a character with the specified state.
+     *
+     * @param ch    the character to append
+     * @param state the state of the character
+     * @return this builder
+     */
+    public AnsiStringBuilder append(char ch, long state) {
+        final int length = this.length;
+        ensureCapacity(length + 1);
+        chars[length] = ch;
+        if (state != 0L || states != null) {
+            states()[length] = state;
+        }
+        this.length = length + 1;
+        return this;
+    }
+
+    /**
+     * Appends the styled representation of the {@code AnsiFormattable}, each category of the states
+     * of the appended characters that is {@code 0} is taken from {@code baseState}.
+     */
+    AnsiStringBuilder appendOver(AnsiFormattable formattable, long baseState) {
+        final int start = this.length;
+        append(formattable);
+        if (baseState != 0L && length > start) {
+            fillOver(start, baseState);
+        }
+        return this;
+    }
+
+    /**
+     * Takes each category of the states in range {@code [start, length)} that is {@code 0} from {@code baseState},
+     * once per run of equal states.
+     */
+    private void fillOver(int start, long baseState) {
+        final long[] states = states();
+        final Category[] categories = Category.categories();
+        final int length = this.length;
+        int i = start;
+        while (i < length) {
+            final long state = states[i];
+            int runLimit = i + 1;
+            while (runLimit < length && states[runLimit] == state) {
+                runLimit++;
+            }
+
+            long filled = state;
+            for (Category category : categories) {
+                final long mask = category.mask();
+                if ((filled & mask) == 0L) {
+                    filled |= baseState & mask;
+                }
+            }
+            if (filled != state) {
+                Arrays.fill(states, i, runLimit, filled);
+            }
+            i = runLimit;
+        }
+    }
+
+    /**
+     * Inserts the characters and states of the {@code AnsiString} into this builder.
+     *
+     * @param index  the offset to insert at
+     * @param string the {@code AnsiString} to insert
+     * @return this builder
+     * @throws IndexOutOfBoundsException if the {@code index} is negative or greater than {@link #length()}
+     */
+    public AnsiStringBuilder insert(int index, AnsiString string) {
+        if (index < 0 || index > length) {
+            throw new IndexOutOfBoundsException("Index out of range: " + index);
+        }
+        if (string == null) {
+            string = AnsiString.valueOf((Object) null);
+        }
+
+        final int count = string.length();
+        if (count == 0) {
+            return this;
+        }
+
+        final int length = this.length;
+        ensureCapacity(length + count);
+        System.arraycopy(chars, index, chars, index + count, length - index);
+        if (states != null) {
+            System.arraycopy(states, index, states, index + count, length - index);
+        }
+        write(string, 0, count, index);
+        this.length = length + count;
+        return this;
+    }
+
+    /**
+     * Applies the {@code attribute} to all characters in this builder, in place.
+     *
+     * @param attribute the attribute to apply
+     * @return this builder
+     */
+    public AnsiStringBuilder overlay(AnsiString.Attribute attribute) {
+        return overlay(attribute, 0, length);
+    }
+
+    /**
+     * Applies the {@code attribute} to the characters in range {@code [start, end)}, in place.
+     *
+     * @param attribute the attribute to apply
+     * @param start     the starting index of the range, inclusive
+     * @param end       the ending index of the range, exclusive
+     * @return this builder
+     * @throws IndexOutOfBoundsException if {@code start} is negative, or {@code end} is greater than {@link #length()}
+     * @throws IllegalArgumentException  if {@code start} is greater than {@code end}
+     */
+    public AnsiStringBuilder overlay(AnsiString.Attribute attribute, int start, int end) {
+        if (attribute == null) {
+            throw new NullPointerException();
+        }
+        checkRange(start, end, length);
+
+        if (start == end) {
+            return this;
+        }
+
+        if (states == null) {
+            final long state = attribute.transform(0L);
+            if (state != 0L) {
+                Arrays.fill(states(), start, end, state);
+            }
+            return this;
+        }
+
+        final long[] states = this.states;
+        final long resetMask = attribute.resetMask;
+        final long applyMask = attribute.applyMask;
+        for (int i = start; i < end; i++) {
+            states[i] = (states[i] & ~resetMask) | applyMask;
+        }
+        return this;
+    }
+
+    /**
+     * Builds an {@code AnsiString} from the contents of this builder.
+     *
+     * <p>The leading and trailing {@code 0} states are trimmed, the plain text and the states
+     * are each copied once into the immutable result.
+     *
+     * @return the {@code AnsiString}
+     */
+    public AnsiString build() {
+        final int length = this.length;
+        if (length == 0) {
+            return AnsiString.EMPTY;
+        }
+
+        final String plain = new String(chars, 0, length);
+        final long[] states = this.states;
+        if (states == null) {
+            return AnsiString.of0(plain, null, 0);
+        }
+
+        int from = 0;
+        while (from < length && states[from] == 0L) {
+            from++;
+        }
+        int to = length;
+        while (to > from && states[to - 1] == 0L) {
+            to--;
+        }
+
+        return AnsiString.of0(plain, from == to ? null : Arrays.copyOfRange(states, from, to), from);
+    }
+
+    /**
+     * Returns the encoded string of the contents of this builder.
+     *
+     * @return the encoded string
+     * @see AnsiString#getEncoded()
+     */
+    @Override
+    public String toString() {
+        return build().toString();
+    }
+}
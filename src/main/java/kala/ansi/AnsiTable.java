@@ -0,0 +1,554 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lays out rows of {@link AnsiString} cells as a table.
+ *
+ * <p>Column widths are measured in terminal columns (see {@link AnsiString#columnWidth()}).
+ * Unless all columns have a fixed width, the rows are iterated twice: once to measure the columns,
+ * and once to write them. Cells are written directly from their states to the output,
+ * padding, borders and truncation do not create intermediate {@code AnsiString}s.
+ *
+ * <p>Cells should not contain line terminators.
+ *
+ * <p>Instances of this class are immutable and can be shared between threads.
+ */
+public final class AnsiTable {
+    /**
+     * The horizontal alignment of the cells in a column.
+     */
+    public enum Alignment {
+        LEFT, RIGHT, CENTER
+    }
+
+    /**
+     * The style of the borders of a table.
+     */
+    public enum Border {
+        /**
+         * No borders, the columns are separated by two spaces.
+         */
+        NONE(null, null, null, '\0'),
+        /**
+         * Borders drawn with {@code +}, {@code -} and {@code |}.
+         */
+        ASCII("+-++", "+-++", "+-++", '|'),
+        /**
+         * Borders drawn with box-drawing characters.
+         */
+        UNICODE("\u250c\u2500\u252c\u2510", "\u251c\u2500\u253c\u2524", "\u2514\u2500\u2534\u2518", '\u2502');
+
+        /**
+         * The left corner, horizontal line, junction and right corner of each rule.
+         */
+        final String top, middle, bottom;
+
+        /**
+         * The vertical line between the cells of a row, only used if {@link #hasVertical} is {@code true}.
+         */
+        final char vertical;
+        final boolean hasVertical;
+
+        Border(String top, String middle, String bottom, char vertical) {
+            this.top = top;
+            this.middle = middle;
+            this.bottom = bottom;
+            this.vertical = vertical;
+            this.hasVertical = vertical != '\0';
+        }
+    }
+
+    private final int columns;
+    private final Alignment[] alignments;
+    private final int[] fixedWidths;
+    private final int[] maxWidths;
+    private final Border border;
+    private final AnsiString.Attribute borderStyle;
+    private final AnsiString ellipsis;
+    private final int headerRows;
+    private final AnsiString.ColorLevel colorLevel;
+
+    private AnsiTable(Builder builder) {
+        this.columns = builder.columns;
+        this.alignments = builder.alignments.clone();
+        this.fixedWidths = builder.fixedWidths.clone();
+        this.maxWidths = builder.maxWidths.clone();
+        this.border = builder.border;
+        this.borderStyle = builder.borderStyle;
+        this.ellipsis = builder.ellipsis;
+        this.headerRows = builder.headerRows;
+        this.colorLevel = builder.colorLevel;
+    }
+
+    /**
+     * Returns a builder of tables with the specified number of columns.
+     *
+     * @param columns the number of columns
+     * @return the builder
+     * @throws IllegalArgumentException if {@code columns} is not positive
+     */
+    public static Builder builder(int columns) {
+        if (columns <= 0) {
+            throw new IllegalArgumentException("columns(" + columns + ") <= 0");
+        }
+        return new Builder(columns);
+    }
+
+    /**
+     * Renders the rows as a string, each row ends with {@code '\n'}.
+     *
+     * @param rows the rows, a row may have fewer cells than the table has columns
+     * @return the encoded table
+     * @throws IllegalArgumentException if a row has more cells than the table has columns
+     */
+    public String render(Iterable<? extends List<? extends AnsiString>> rows) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            render(rows, builder);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Renders the rows to {@code output}, each row ends with {@code '\n'}.
+     *
+     * <p>Each row is encoded into a buffer and appended to the {@code output} when it is complete.
+     *
+     * @param rows   the rows, a row may have fewer cells than the table has columns
+     * @param output the output
+     * @throws IOException              if an I/O error occurs
+     * @throws IllegalArgumentException if a row has more cells than the table has columns
+     */
+    public void render(Iterable<? extends List<? extends AnsiString>> rows, Appendable output) throws IOException {
+        if (output == null) {
+            throw new NullPointerException();
+        }
+        final int[] widths = measure(rows);
+        final EncodingSink sink = new EncodingSink(output, colorLevel, borderStyle);
+        write(rows, widths, sink);
+    }
+
+    /**
+     * Appends the rows to {@code builder}, each row ends with {@code '\n'}.
+     *
+     * @param rows    the rows, a row may have fewer cells than the table has columns
+     * @param builder the builder
+     * @throws IllegalArgumentException if a row has more cells than the table has columns
+     */
+    public void render(Iterable<? extends List<? extends AnsiString>> rows, AnsiStringBuilder builder) {
+        if (builder == null) {
+            throw new NullPointerException();
+        }
+        final int[] widths = measure(rows);
+        try {
+            write(rows, widths, new BuilderSink(builder, borderStyle));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private int[] measure(Iterable<? extends List<? extends AnsiString>> rows) {
+        final int[] widths = fixedWidths.clone();
+
+        boolean allFixed = true;
+        for (int width : widths) {
+            if (width < 0) {
+                allFixed = false;
+                break;
+            }
+        }
+        if (allFixed) {
+            return widths;
+        }
+
+        for (int i = 0; i < widths.length; i++) {
+            if (widths[i] < 0) {
+                widths[i] = 0;
+            }
+        }
+        for (List<? extends AnsiString> row : rows) {
+            checkRow(row);
+            for (int i = 0; i < row.size(); i++) {
+                final AnsiString cell = row.get(i);
+                if (fixedWidths[i] < 0 && cell != null && widths[i] < maxWidths[i]) {
+                    widths[i] = Math.max(widths[i], Math.min(maxWidths[i], DisplayWidth.of(cell.plain, 0, cell.length())));
+                }
+            }
+        }
+        return widths;
+    }
+
+    private void checkRow(List<? extends AnsiString> row) {
+        if (row.size() > columns) {
+            throw new IllegalArgumentException("The row has " + row.size() + " cells, but the table only has " + columns + " columns");
+        }
+    }
+
+    private void write(Iterable<? extends List<? extends AnsiString>> rows, int[] widths, Sink sink) throws IOException {
+        final int ellipsisWidth = DisplayWidth.of(ellipsis.plain, 0, ellipsis.length());
+
+        writeRule(border.top, widths, sink);
+        int rowIndex = 0;
+        for (List<? extends AnsiString> row : rows) {
+            checkRow(row);
+            if (rowIndex > 0 && rowIndex == headerRows) {
+                writeRule(border.middle, widths, sink);
+            }
+
+            // Spaces are only written before the content that follows them, so rows have no trailing spaces
+            int pendingSpaces = 0;
+            if (border.hasVertical) {
+                sink.border(border.vertical);
+            }
+            for (int column = 0; column < columns; column++) {
+                final int width = widths[column];
+
+                if (border.hasVertical) {
+                    pendingSpaces++;
+                } else if (column > 0) {
+                    pendingSpaces += 2;
+                }
+
+                final AnsiString cell = column < row.size() ? row.get(column) : null;
+                int cellWidth = 0;
+                int limit = 0;
+                boolean truncated = false;
+                if (cell != null) {
+                    final String plain = cell.plain;
+                    final int length = plain.length();
+                    final int budget = width - ellipsisWidth;
+
+                    // One scan finds the width of the cell and where to cut it if it does not fit
+                    int prefixLimit = 0;
+                    int prefixWidth = 0;
+                    for (int i = 0; i < length; ) {
+                        final int codePoint = DisplayWidth.codePointAt(plain, i, length);
+                        cellWidth += DisplayWidth.of(codePoint);
+                        if (cellWidth > width) {
+                            truncated = true;
+                            break;
+                        }
+                        i += Character.charCount(codePoint);
+                        if (cellWidth <= budget) {
+                            prefixLimit = i;
+                            prefixWidth = cellWidth;
+                        }
+                    }
+
+                    if (truncated) {
+                        limit = prefixLimit;
+                        cellWidth = ellipsisWidth <= width ? prefixWidth + ellipsisWidth : prefixWidth;
+                    } else {
+                        limit = length;
+                    }
+                }
+
+                final int padding = width - cellWidth;
+                final int leftPadding;
+                switch (alignments[column]) {
+                    case RIGHT:
+                        leftPadding = padding;
+                        break;
+                    case CENTER:
+                        leftPadding = padding / 2;
+                        break;
+                    default:
+                        leftPadding = 0;
+                }
+
+                if (limit > 0 || truncated && ellipsisWidth <= width) {
+                    sink.spaces(pendingSpaces + leftPadding);
+                    pendingSpaces = padding - leftPadding;
+                    sink.cell(cell, limit);
+                    if (truncated && ellipsisWidth <= width) {
+                        sink.cell(ellipsis, ellipsis.length());
+                    }
+                } else {
+                    pendingSpaces += padding;
+                }
+
+                if (border.hasVertical) {
+                    sink.spaces(pendingSpaces + 1);
+                    pendingSpaces = 0;
+                    sink.border(border.vertical);
+                }
+            }
+            sink.endLine();
+            rowIndex++;
+        }
+        writeRule(border.bottom, widths, sink);
+    }
+
+    private void writeRule(String rule, int[] widths, Sink sink) throws IOException {
+        if (rule == null) {
+            return;
+        }
+
+        final StringBuilder builder = new StringBuilder();
+        builder.append(rule.charAt(0));
+        for (int column = 0; column < columns; column++) {
+            if (column > 0) {
+                builder.append(rule.charAt(2));
+            }
+            for (int i = widths[column] + 2; i > 0; i--) {
+                builder.append(rule.charAt(1));
+            }
+        }
+        builder.append(rule.charAt(3));
+        sink.border(builder);
+        sink.endLine();
+    }
+
+    private static abstract class Sink {
+        abstract void cell(AnsiString string, int end) throws IOException;
+
+        abstract void spaces(int count) throws IOException;
+
+        abstract void border(CharSequence text) throws IOException;
+
+        abstract void border(char ch) throws IOException;
+
+        abstract void endLine() throws IOException;
+    }
+
+    private static final class EncodingSink extends Sink {
+        private final Appendable output;
+        private final StringBuilder line;
+        private final AnsiString.ColorLevel level;
+        private final String borderPrefix;
+        private final String borderSuffix;
+
+        EncodingSink(Appendable output, AnsiString.ColorLevel level, AnsiString.Attribute borderStyle) {
+            this.output = output;
+            this.line = output instanceof StringBuilder ? (StringBuilder) output : new StringBuilder();
+            this.level = level;
+
+            final long borderState = level.downsample(borderStyle.transform(0L));
+            this.borderPrefix = TransitionCache.get(0L, borderState);
+            this.borderSuffix = TransitionCache.get(borderState, 0L);
+        }
+
+        @Override
+        void cell(AnsiString string, int end) {
+            string.encode(0, end, 0L, true, level, line);
+        }
+
+        @Override
+        void spaces(int count) {
+            for (int i = 0; i < count; i++) {
+                line.append(' ');
+            }
+        }
+
+        @Override
+        void border(CharSequence text) {
+            line.append(borderPrefix).append(text).append(borderSuffix);
+        }
+
+        @Override
+        void border(char ch) {
+            line.append(borderPrefix).append(ch).append(borderSuffix);
+        }
+
+        @Override
+        void endLine() throws IOException {
+            line.append('\n');
+            if (line != output) {
+                output.append(line);
+                line.setLength(0);
+            }
+        }
+    }
+
+    private static final class BuilderSink extends Sink {
+        private final AnsiStringBuilder builder;
+        private final AnsiString.Attribute borderStyle;
+        private final long borderState;
+
+        BuilderSink(AnsiStringBuilder builder, AnsiString.Attribute borderStyle) {
+            this.builder = builder;
+            this.borderStyle = borderStyle;
+            this.borderState = borderStyle.transform(0L);
+        }
+
+        @Override
+        void cell(AnsiString string, int end) {
+            builder.append(string, 0, end);
+        }
+
+        @Override
+        void spaces(int count) {
+            for (int i = 0; i < count; i++) {
+                builder.append(' ', 0L);
+            }
+        }
+
+        @Override
+        void border(CharSequence text) {
+            builder.append(text, borderStyle);
+        }
+
+        @Override
+        void border(char ch) {
+            builder.append(ch, borderState);
+        }
+
+        @Override
+        void endLine() {
+            builder.append('\n', 0L);
+        }
+    }
+
+    /**
+     * A builder of {@link AnsiTable}.
+     */
+    public static final class Builder {
+        private final int columns;
+        private final Alignment[] alignments;
+        private final int[] fixedWidths;
+        private final int[] maxWidths;
+        private Border border = Border.NONE;
+        private AnsiString.Attribute borderStyle = AnsiString.Attribute.empty();
+        private AnsiString ellipsis = AnsiString.ofPlain("...");
+        private int headerRows = 0;
+        private AnsiString.ColorLevel colorLevel = AnsiString.ColorLevel.TRUE_COLOR;
+
+        Builder(int columns) {
+            this.columns = columns;
+            this.alignments = new Alignment[columns];
+            this.fixedWidths = new int[columns];
+            this.maxWidths = new int[columns];
+            Arrays.fill(alignments, Alignment.LEFT);
+            Arrays.fill(fixedWidths, -1);
+            Arrays.fill(maxWidths, Integer.MAX_VALUE);
+        }
+
+        private void checkColumn(int column) {
+            if (column < 0 || column >= columns) {
+                throw new IndexOutOfBoundsException("Column out of range: " + column);
+            }
+        }
+
+        /**
+         * Sets the alignment of a column, the default alignment is {@link Alignment#LEFT}.
+         */
+        public Builder align(int column, Alignment alignment) {
+            checkColumn(column);
+            if (alignment == null) {
+                throw new NullPointerException();
+            }
+            alignments[column] = alignment;
+            return this;
+        }
+
+        /**
+         * Sets the fixed width of a column, wider cells are truncated.
+         */
+        public Builder width(int column, int width) {
+            checkColumn(column);
+            if (width < 0) {
+                throw new IllegalArgumentException("width(" + width + ") < 0");
+            }
+            fixedWidths[column] = width;
+            return this;
+        }
+
+        /**
+         * Sets the maximum width of a column, wider cells are truncated.
+         */
+        public Builder maxWidth(int column, int maxWidth) {
+            checkColumn(column);
+            if (maxWidth < 0) {
+                throw new IllegalArgumentException("maxWidth(" + maxWidth + ") < 0");
+            }
+            maxWidths[column] = maxWidth;
+            return this;
+        }
+
+        /**
+         * Sets the style of the borders, the default is {@link Border#NONE}.
+         */
+        public Builder border(Border border) {
+            if (border == null) {
+                throw new NullPointerException();
+            }
+            this.border = border;
+            return this;
+        }
+
+        /**
+         * Sets the attribute applied to the borders.
+         */
+        public Builder borderStyle(AnsiString.Attribute borderStyle) {
+            if (borderStyle == null) {
+                throw new NullPointerException();
+            }
+            this.borderStyle = borderStyle;
+            return this;
+        }
+
+        /**
+         * Sets the string that marks truncated cells, the default is {@code "..."}.
+         */
+        public Builder ellipsis(AnsiString ellipsis) {
+            if (ellipsis == null) {
+                throw new NullPointerException();
+            }
+            this.ellipsis = ellipsis;
+            return this;
+        }
+
+        /**
+         * Sets the number of header rows, which are separated from the other rows by a rule if the table has borders.
+         */
+        public Builder headerRows(int headerRows) {
+            if (headerRows < 0) {
+                throw new IllegalArgumentException("headerRows(" + headerRows + ") < 0");
+            }
+            this.headerRows = headerRows;
+            return this;
+        }
+
+        /**
+         * Sets the color level used when the table is rendered to an {@code Appendable}.
+         *
+         * @see AnsiString#getEncoded(AnsiString.ColorLevel)
+         */
+        public Builder colorLevel(AnsiString.ColorLevel colorLevel) {
+            if (colorLevel == null) {
+                throw new NullPointerException();
+            }
+            this.colorLevel = colorLevel;
+            return this;
+        }
+
+        /**
+         * Builds a table with the current settings, later changes to this builder do not affect it.
+         *
+         * @return the table
+         */
+        public AnsiTable build() {
+            return new AnsiTable(this);
+        }
+    }
+}
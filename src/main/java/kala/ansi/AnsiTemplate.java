@@ -0,0 +1,300 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A compiled style markup template, such as {@code "[red]ERROR[/] [bold]{}[/]"}.
+ *
+ * <p>The markup consists of:
+ * <ul>
+ *     <li>{@code [style]}, which applies the style to the text up to the matching {@code [/]} or the end of the template.
+ *     A style is a list of words separated by spaces: {@code bold}, {@code underline}, {@code reverse},
+ *     the name of a color such as {@code red} or {@code light-blue}, or a true color such as {@code #ff8000}.
+ *     A color preceded by {@code on} sets the background color, for example {@code [bold white on red]};</li>
+ *     <li>{@code [/]}, which closes the innermost open style;</li>
+ *     <li>{@code {}}, a slot that is replaced by an argument when the template is rendered.
+ *     The states of the argument are kept, and the categories in which it has no state take the enclosing style;</li>
+ *     <li>{@code \[}, {@code \]}, <code>\{</code>, <code>\}</code> and {@code \\}, which stand for the escaped character.</li>
+ * </ul>
+ *
+ * <p>A template is parsed once into a sequence of styled fixed segments and slots.
+ * Rendering it copies the segments and the arguments into a buffer of the exact length of the result.
+ *
+ * <p>Instances of this class are immutable and can be shared between threads.
+ */
+public final class AnsiTemplate {
+    private static final Map<String, AnsiString.Attribute> FOREGROUND_STYLES = new HashMap<>();
+    private static final Map<String, AnsiString.Attribute> BACKGROUND_STYLES = new HashMap<>();
+
+    static {
+        final String[] names = {
+                "black", "red", "green", "yellow", "blue", "magenta", "cyan", "lightgray",
+                "darkgray", "lightred", "lightgreen", "lightyellow", "lightblue", "lightmagenta", "lightcyan", "white"
+        };
+        for (int i = 0; i < names.length; i++) {
+            FOREGROUND_STYLES.put(names[i], AnsiString.Color.category.lookupAttr((long) (i + 1) << AnsiString.Color.category.offset));
+            BACKGROUND_STYLES.put(names[i], AnsiString.Back.category.lookupAttr((long) (i + 1) << AnsiString.Back.category.offset));
+        }
+        FOREGROUND_STYLES.put("default", AnsiString.Color.Reset);
+        BACKGROUND_STYLES.put("default", AnsiString.Back.Reset);
+
+        FOREGROUND_STYLES.put("bold", AnsiString.Bold.On);
+        FOREGROUND_STYLES.put("underline", AnsiString.Underlined.On);
+        FOREGROUND_STYLES.put("underlined", AnsiString.Underlined.On);
+        FOREGROUND_STYLES.put("reverse", AnsiString.Reversed.On);
+        FOREGROUND_STYLES.put("reversed", AnsiString.Reversed.On);
+        FOREGROUND_STYLES.put("reset", AnsiString.Reset);
+    }
+
+    /**
+     * A direct-mapped cache of templates, indexed by the hash of the markup.
+     *
+     * <p>It can be configured with the {@code kala.ansi.templateCacheSize} system property.
+     *
+     * @see Caches#size(String, int)
+     */
+    private static final AtomicReferenceArray<AnsiTemplate> CACHE = Caches.create(Caches.size("kala.ansi.templateCacheSize", 256));
+
+    private final String markup;
+
+    /**
+     * The fixed segments, {@code segments[i]} precedes the slot {@code i}.
+     */
+    private final AnsiString[] segments;
+
+    /**
+     * The state of the enclosing style of each slot.
+     */
+    private final long[] slotStates;
+
+    private final int fixedLength;
+
+    private AnsiTemplate(String markup, AnsiString[] segments, long[] slotStates) {
+        this.markup = markup;
+        this.segments = segments;
+        this.slotStates = slotStates;
+
+        int fixedLength = 0;
+        for (AnsiString segment : segments) {
+            fixedLength += segment.length();
+        }
+        this.fixedLength = fixedLength;
+    }
+
+    /**
+     * Compiles the markup, or returns the cached template of it.
+     *
+     * @param markup the markup
+     * @return the compiled template
+     * @throws IllegalArgumentException if the markup is malformed
+     */
+    public static AnsiTemplate compile(String markup) {
+        final AtomicReferenceArray<AnsiTemplate> cache = CACHE;
+        if (cache == null) {
+            return parse(markup);
+        }
+
+        final int slot = Caches.slot(cache, markup.hashCode());
+        AnsiTemplate template = cache.get(slot);
+        if (template == null || !template.markup.equals(markup)) {
+            template = parse(markup);
+            cache.set(slot, template);
+        }
+        return template;
+    }
+
+    private static AnsiTemplate parse(String markup) {
+        final int length = markup.length();
+        final List<AnsiString> segments = new ArrayList<>();
+        long[] slotStates = new long[4];
+
+        long[] stack = new long[8];
+        int depth = 0;
+        long state = 0L;
+
+        AnsiStringBuilder segment = new AnsiStringBuilder();
+        int i = 0;
+        while (i < length) {
+            final char ch = markup.charAt(i);
+            if (ch == '\\' && i + 1 < length && "[]{}\\".indexOf(markup.charAt(i + 1)) >= 0) {
+                segment.append(markup.charAt(i + 1), state);
+                i += 2;
+            } else if (ch == '{' && i + 1 < length && markup.charAt(i + 1) == '}') {
+                if (segments.size() == slotStates.length) {
+                    slotStates = Arrays.copyOf(slotStates, slotStates.length * 2);
+                }
+                slotStates[segments.size()] = state;
+                segments.add(segment.build());
+                segment = new AnsiStringBuilder();
+                i += 2;
+            } else if (ch == '[') {
+                final int end = markup.indexOf(']', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed tag at index " + i + ": " + markup);
+                }
+                final String tag = markup.substring(i + 1, end).trim();
+                if (tag.equals("/")) {
+                    if (depth == 0) {
+                        throw new IllegalArgumentException("Unmatched [/] at index " + i + ": " + markup);
+                    }
+                    state = stack[--depth];
+                } else {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = state;
+                    state = style(tag, markup, i).transform(state);
+                }
+                i = end + 1;
+            } else {
+                segment.append(ch, state);
+                i++;
+            }
+        }
+        segments.add(segment.build());
+
+        return new AnsiTemplate(
+                markup,
+                segments.toArray(new AnsiString[0]),
+                Arrays.copyOf(slotStates, segments.size() - 1)
+        );
+    }
+
+    private static AnsiString.Attribute style(String tag, String markup, int index) {
+        if (tag.isEmpty()) {
+            throw new IllegalArgumentException("Empty style at index " + index + ": " + markup);
+        }
+        final String[] words = tag.split("\\s+");
+
+        final AnsiString.Attribute[] attributes = new AnsiString.Attribute[words.length];
+        int count = 0;
+        for (int w = 0; w < words.length; w++) {
+            final boolean background = words[w].equalsIgnoreCase("on");
+            if (background && ++w == words.length) {
+                throw new IllegalArgumentException("Missing color after 'on' at index " + index + ": " + markup);
+            }
+
+            final String word = words[w];
+            final AnsiString.Attribute attribute;
+            if (word.length() == 7 && word.charAt(0) == '#') {
+                final int rgb;
+                try {
+                    rgb = Integer.parseInt(word.substring(1), 16);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Unknown style '" + word + "' at index " + index + ": " + markup);
+                }
+                attribute = background
+                        ? AnsiString.Back.True(rgb >> 16, (rgb >> 8) & 0xff, rgb & 0xff)
+                        : AnsiString.Color.True(rgb >> 16, (rgb >> 8) & 0xff, rgb & 0xff);
+            } else {
+                final String name = word.toLowerCase(Locale.ROOT).replace("-", "").replace("_", "");
+                attribute = (background ? BACKGROUND_STYLES : FOREGROUND_STYLES).get(name);
+                if (attribute == null || background && name.equals("reset")) {
+                    throw new IllegalArgumentException("Unknown style '" + word + "' at index " + index + ": " + markup);
+                }
+            }
+            attributes[count++] = attribute;
+        }
+        return AnsiString.Attribute.of(Arrays.asList(attributes).subList(0, count));
+    }
+
+    /**
+     * Returns the number of slots of this template.
+     */
+    public int slotCount() {
+        return slotStates.length;
+    }
+
+    /**
+     * Renders this template with the arguments.
+     *
+     * <p>{@link AnsiFormattable} arguments are formatted straight into the result,
+     * other arguments are converted by {@link AnsiString#valueOf(Object)}.
+     *
+     * @param args the arguments, one for each slot
+     * @return the rendered string
+     * @throws IllegalArgumentException if the number of arguments is not the same as {@link #slotCount()}
+     */
+    public AnsiString render(Object... args) {
+        final AnsiFormattable[] values = values(args);
+        long length = fixedLength;
+        for (AnsiFormattable value : values) {
+            if (value instanceof AnsiString) {
+                length += ((AnsiString) value).length();
+            }
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Required length exceeds implementation limit");
+        }
+        return render(new AnsiStringBuilder((int) length), values).build();
+    }
+
+    /**
+     * Renders this template with the arguments, and appends the result to the {@code builder}.
+     *
+     * @param builder the builder
+     * @param args    the arguments, one for each slot
+     * @return the {@code builder}
+     * @throws IllegalArgumentException if the number of arguments is not the same as {@link #slotCount()}
+     * @see #render(Object...)
+     */
+    public AnsiStringBuilder renderTo(AnsiStringBuilder builder, Object... args) {
+        if (builder == null) {
+            throw new NullPointerException();
+        }
+        return render(builder, values(args));
+    }
+
+    /**
+     * Converts the arguments that are not {@code AnsiFormattable}s to {@code AnsiString}s.
+     */
+    private AnsiFormattable[] values(Object[] args) {
+        if (args.length != slotStates.length) {
+            throw new IllegalArgumentException("The template has " + slotStates.length + " slots, but " + args.length + " arguments are given");
+        }
+        final AnsiFormattable[] values = new AnsiFormattable[args.length];
+        for (int i = 0; i < args.length; i++) {
+            final Object arg = args[i];
+            values[i] = arg instanceof AnsiFormattable ? (AnsiFormattable) arg : AnsiString.valueOf(arg);
+        }
+        return values;
+    }
+
+    private AnsiStringBuilder render(AnsiStringBuilder builder, AnsiFormattable[] values) {
+        for (int i = 0; i < values.length; i++) {
+            builder.append(segments[i]);
+            builder.appendOver(values[i], slotStates[i]);
+        }
+        builder.append(segments[values.length]);
+        return builder;
+    }
+
+    /**
+     * Returns the markup of this template.
+     */
+    @Override
+    public String toString() {
+        return markup;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Word wrapping and truncation of {@link AnsiString} by terminal columns.
+ *
+ * @see DisplayWidth
+ */
+final class AnsiWrapper {
+    private AnsiWrapper() {
+    }
+
+    private static boolean isBreakingSpace(int codePoint) {
+        return codePoint == ' ' || codePoint == '\t' || codePoint == 0x3000;
+    }
+
+    /**
+     * Computes the line boundaries in one pass over the plain text.
+     *
+     * <p>Lines are broken at line terminators, and before a word that does not fit, the spaces at such a break are dropped.
+     * A word wider than {@code columns} is broken between code points.
+     */
+    static List<AnsiString> wrap(AnsiString string, int columns) {
+        final String plain = string.plain;
+        final int length = plain.length();
+
+        int[] bounds = new int[16];
+        int count = 0;
+
+        int lineStart = 0;
+        int lineWidth = 0;
+        int breakAt = -1;       // The start of the last run of spaces in the current line
+        int resumeAt = -1;      // The start of the word after that run, or -1 if the run has not ended
+        int resumeWidth = 0;    // The width of [resumeAt, i)
+
+        int i = 0;
+        while (i < length) {
+            final int codePoint = DisplayWidth.codePointAt(plain, i, length);
+            final int charCount = Character.charCount(codePoint);
+
+            if (codePoint == '\n' || codePoint == '\r') {
+                bounds = add(bounds, count++, lineStart, lineEnd(i, lineWidth, columns, breakAt, resumeAt));
+                i += codePoint == '\r' && i + 1 < length && plain.charAt(i + 1) == '\n' ? 2 : 1;
+                lineStart = i;
+                lineWidth = 0;
+                breakAt = -1;
+                resumeAt = -1;
+                continue;
+            }
+
+            final int width = DisplayWidth.of(codePoint);
+            if (isBreakingSpace(codePoint)) {
+                if (breakAt < 0 || resumeAt >= 0) {
+                    breakAt = i;
+                    resumeAt = -1;
+                }
+            } else {
+                if (breakAt >= 0 && resumeAt < 0) {
+                    resumeAt = i;
+                    resumeWidth = 0;
+                }
+
+                if (lineWidth + width > columns && lineWidth > 0) {
+                    if (breakAt > lineStart && resumeAt >= 0) {
+                        // Move the current word to the next line
+                        bounds = add(bounds, count++, lineStart, breakAt);
+                        lineStart = resumeAt;
+                        lineWidth = resumeWidth;
+                    }
+                    if (lineWidth + width > columns && lineWidth > 0) {
+                        bounds = add(bounds, count++, lineStart, i);
+                        lineStart = i;
+                        lineWidth = 0;
+                    }
+                    breakAt = -1;
+                    resumeAt = -1;
+                }
+                if (resumeAt >= 0) {
+                    resumeWidth += width;
+                }
+            }
+            lineWidth += width;
+            i += charCount;
+        }
+
+        if (lineStart < length) {
+            bounds = add(bounds, count++, lineStart, lineEnd(length, lineWidth, columns, breakAt, resumeAt));
+        }
+        return new Lines(string, bounds, count);
+    }
+
+    /**
+     * Returns the end of a line that ends at {@code end}, the trailing spaces are dropped if the line overflows.
+     */
+    private static int lineEnd(int end, int lineWidth, int columns, int breakAt, int resumeAt) {
+        return lineWidth > columns && breakAt >= 0 && resumeAt < 0 ? breakAt : end;
+    }
+
+    private static int[] add(int[] bounds, int index, int start, int end) {
+        if (index * 2 + 2 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[index * 2] = start;
+        bounds[index * 2 + 1] = end;
+        return bounds;
+    }
+
+    static AnsiString truncate(AnsiString string, int columns, AnsiString ellipsis) {
+        final int ellipsisWidth = DisplayWidth.of(ellipsis.plain, 0, ellipsis.length());
+        if (ellipsisWidth > columns) {
+            final AnsiString truncated = truncate(string, columns, AnsiString.EMPTY);
+            return truncated == string ? string : truncate(ellipsis, columns, AnsiString.EMPTY);
+        }
+
+        final String plain = string.plain;
+        final int length = plain.length();
+        final int budget = columns - ellipsisWidth;
+
+        // The end of the longest prefix that fits together with the ellipsis,
+        // including the zero-width code points that follow it
+        int prefixLimit = 0;
+        int width = 0;
+        for (int i = 0; i < length; ) {
+            final int codePoint = DisplayWidth.codePointAt(plain, i, length);
+            width += DisplayWidth.of(codePoint);
+            if (width > columns) {
+                return AnsiSplitter.slice(string, 0, prefixLimit).concat(ellipsis);
+            }
+            i += Character.charCount(codePoint);
+            if (width <= budget) {
+                prefixLimit = i;
+            }
+        }
+        return string;
+    }
+
+    /**
+     * The lines of a wrapped string, each line is created when it is accessed.
+     */
+    private static final class Lines extends AbstractList<AnsiString> implements RandomAccess {
+        private final AnsiString string;
+        private final int[] bounds;
+        private final int size;
+
+        Lines(AnsiString string, int[] bounds, int size) {
+            this.string = string;
+            this.bounds = bounds;
+            this.size = size;
+        }
+
+        @Override
+        public AnsiString get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index out of range: " + index);
+            }
+            return AnsiSplitter.slice(string, bounds[index * 2], bounds[index * 2 + 1]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
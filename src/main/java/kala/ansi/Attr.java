@@ -29,11 +29,7 @@ abstract class Attr extends AnsiString.Attribute {
             throw new NullPointerException();
         }
 
-        if (other instanceof Attrs) {
-            return other.concat(this);
-        } else {
-            return of(this, other);
-        }
+        return Attrs.compose(this, other);
     }
 
     static final class Escape extends Attr {
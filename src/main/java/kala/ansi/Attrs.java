@@ -16,60 +16,122 @@
 package kala.ansi;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * A composition of attributes, represented only by its masks.
+ *
+ * <p>The list of the attributes is derived from the masks when it is first needed.
+ */
 final class Attrs extends AnsiString.Attribute {
     static final Attr[] EMPTY_ATTR_ARRAY = new Attr[0];
 
     static final Attrs EMPTY = new Attrs(0L, 0L, EMPTY_ATTR_ARRAY);
 
-    final Attr[] attributes;
+    /**
+     * The number of compositions cached by {@link #of(long, long)}.
+     *
+     * <p>It can be configured with the {@code kala.ansi.attributeCacheSize} system property.
+     * {@code Attrs} is effectively immutable, so it can be shared through the cache.
+     *
+     * @see Caches#size(String, int)
+     */
+    private static final AtomicReferenceArray<Attrs> CACHE = Caches.create(Caches.size("kala.ansi.attributeCacheSize", 1024));
 
-    Attrs(long resetMask, long applyMask, Attr[] attributes) {
-        super(resetMask, applyMask);
-        this.attributes = attributes;
+    /**
+     * Returns the attribute that applies {@code first} and then {@code second}.
+     */
+    static AnsiString.Attribute compose(AnsiString.Attribute first, AnsiString.Attribute second) {
+        return of(first.resetMask | second.resetMask, (first.applyMask & ~second.resetMask) | second.applyMask);
     }
 
-    @Override
-    public final AnsiString.Attribute concat(AnsiString.Attribute other) {
-        if (other == null) {
-            throw new NullPointerException();
+    /**
+     * Returns the canonical attribute with the masks.
+     *
+     * <p>If the masks are the same as the masks of a single {@link Attr}, the {@code Attr} is returned,
+     * otherwise the {@code Attrs} is looked up in the cache.
+     */
+    static AnsiString.Attribute of(long resetMask, long applyMask) {
+        if (resetMask == 0L) {
+            return EMPTY;
+        }
+        if (resetMask == -1L && applyMask == 0L) {
+            return AnsiString.Reset;
+        }
+        for (Category category : Category.categories()) {
+            if (resetMask == category.mask()) {
+                return category.lookupAttr(applyMask);
+            }
         }
 
-        final Attr[] attributes = this.attributes;
-        final int attributesLength = attributes.length;
-        if (attributesLength == 0) {
-            return other;
+        final AtomicReferenceArray<Attrs> cache = CACHE;
+        if (cache == null) {
+            return new Attrs(resetMask, applyMask, null);
         }
 
-        if (other instanceof Attrs) {
-            final Attrs os = (Attrs) other;
-            final int osAttributesLength = os.attributes.length;
+        final int slot = Caches.slot(cache, resetMask, applyMask);
 
-            if (osAttributesLength == 0) {
-                return this;
-            }
-            if (Arrays.equals(this.attributes, os.attributes)) {
-                return this;
-            }
+        Attrs attrs = cache.get(slot);
+        if (attrs == null || attrs.resetMask != resetMask || attrs.applyMask != applyMask) {
+            attrs = new Attrs(resetMask, applyMask, null);
+            cache.set(slot, attrs);
+        }
+        return attrs;
+    }
+
+    /**
+     * The attributes of this composition, sorted by their apply masks, or {@code null} if not yet computed.
+     */
+    private volatile Attr[] attributes;
 
-            Attr[] newAttrs = new Attr[attributesLength + osAttributesLength];
-            System.arraycopy(attributes, 0, newAttrs, 0, attributesLength);
-            System.arraycopy(os.attributes, 0, newAttrs, attributesLength, osAttributesLength);
-            return of(newAttrs);
+    private Attrs(long resetMask, long applyMask, Attr[] attributes) {
+        super(resetMask, applyMask);
+        this.attributes = attributes;
+    }
+
+    Attr[] attributes() {
+        Attr[] attributes = this.attributes;
+        if (attributes != null) {
+            return attributes;
+        }
+
+        final Category[] categories = Category.categories();
+        int count = 0;
+        Attr[] result;
+        if (resetMask == -1L) {
+            result = new Attr[categories.length + 1];
+            result[count++] = (Attr) AnsiString.Reset;
+            for (Category category : categories) {
+                final long value = applyMask & category.mask();
+                if (value != 0L) {
+                    result[count++] = category.lookupAttr(value);
+                }
+            }
         } else {
-            int idx = Arrays.binarySearch(attributes, other);
-            if (idx < 0) {
-                Attr[] s = Arrays.copyOfRange(attributes, 0, attributesLength + 1);
-                s[attributesLength] = ((Attr) other);
-                return of(s);
-            } else {
-                return this;
+            result = new Attr[categories.length];
+            for (Category category : categories) {
+                final long mask = category.mask();
+                if ((resetMask & mask) != 0L) {
+                    result[count++] = category.lookupAttr(applyMask & mask);
+                }
             }
         }
+
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return this.attributes = result;
+    }
+
+    @Override
+    public final AnsiString.Attribute concat(AnsiString.Attribute other) {
+        if (other == null) {
+            throw new NullPointerException();
+        }
+        return compose(this, other);
     }
 
     @Override
     public final String toString() {
-        return "Attributes" + Arrays.toString(attributes);
+        return "Attributes" + Arrays.toString(attributes());
     }
 }
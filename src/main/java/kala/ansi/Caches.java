@@ -0,0 +1,81 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Helpers of the direct-mapped caches of this package.
+ *
+ * <p>Each cache is an {@link AtomicReferenceArray} whose size is read from a system property.
+ * The size is rounded up to a power of two, and {@code 0} disables the cache.
+ * The cached values are immutable, so racy reads and writes are safe, a colliding entry simply evicts the previous one.
+ */
+final class Caches {
+    private Caches() {
+    }
+
+    private static final int MAX_SIZE = 1 << 24;
+
+    /**
+     * Returns the size of a cache, configured with the {@code property} system property.
+     *
+     * @return a power of two, or {@code 0} if the cache is disabled
+     */
+    static int size(String property, int defaultSize) {
+        int size = defaultSize;
+        try {
+            String value = System.getProperty(property);
+            if (value != null) {
+                size = Integer.parseInt(value.trim());
+            }
+        } catch (SecurityException | NumberFormatException ignored) {
+        }
+        return roundSize(size);
+    }
+
+    static int roundSize(int size) {
+        if (size <= 0) {
+            return 0;
+        }
+        if (size >= MAX_SIZE) {
+            return MAX_SIZE;
+        }
+        return Integer.highestOneBit((size << 1) - 1);
+    }
+
+    /**
+     * Creates a cache of the {@code size}, or returns {@code null} if the {@code size} is {@code 0}.
+     */
+    static <T> AtomicReferenceArray<T> create(int size) {
+        return size > 0 ? new AtomicReferenceArray<>(size) : null;
+    }
+
+    /**
+     * Returns the slot of the {@code cache} for the {@code hash}.
+     */
+    static int slot(AtomicReferenceArray<?> cache, long hash) {
+        hash *= 0xBF58476D1CE4E5B9L;
+        return (int) (hash ^ (hash >>> 32)) & (cache.length() - 1);
+    }
+
+    /**
+     * Returns the slot of the {@code cache} for the pair of keys.
+     */
+    static int slot(AtomicReferenceArray<?> cache, long key1, long key2) {
+        return slot(cache, (key1 * 0x9E3779B97F4A7C15L) ^ key2);
+    }
+}
@@ -15,7 +15,14 @@
  */
 package kala.ansi;
 
-class Category {
+/**
+ * A group of attributes that occupy the same bits of a state, such as the foreground color or the bold flag.
+ * Applying an attribute replaces the other attributes of its category.
+ *
+ * @see AnsiString#clearCategory(Category)
+ * @see AnsiString#keepOnly(Category...)
+ */
+public class Category {
     private static Category[] categories;
 
     static Category[] categories() {
@@ -56,8 +63,13 @@ class Category {
     }
 
 
-    final int mask() {
-        return ((1 << width) - 1) << offset;
+    /**
+     * Returns the bits of a state occupied by this category.
+     *
+     * @return the mask of this category
+     */
+    public final long mask() {
+        return ((1L << width) - 1) << offset;
     }
 
     String lookupEscape(long applyState) {
@@ -65,6 +77,18 @@ class Category {
         return escape == null ? "" : escape;
     }
 
+    /**
+     * Appends the escape sequence of {@link #lookupEscape(long)} to {@code output}.
+     */
+    void appendEscape(long applyState, StringBuilder output) {
+        output.append(lookupEscape(applyState));
+    }
+
+    int lookupEscapeLength(long applyState) {
+        String escape = lookupAttr(applyState).escape;
+        return escape == null ? 0 : escape.length();
+    }
+
     Attr lookupAttr(long applyState) {
         return lookupAttrTable[(int) (applyState >> offset)];
     }
@@ -15,13 +15,31 @@
  */
 package kala.ansi;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 final class ColorCategory extends Category {
+    /**
+     * The number of true color attributes cached by each color category.
+     *
+     * <p>It can be configured with the {@code kala.ansi.trueColorCacheSize} system property.
+     *
+     * @see Caches#size(String, int)
+     */
+    static final int TRUE_COLOR_CACHE_SIZE = Caches.size("kala.ansi.trueColorCacheSize", 4096);
+
     final int colorCode;
 
+    /**
+     * A direct-mapped cache of true color attributes, indexed by the hash of the 24-bit RGB value.
+     */
+    private final AtomicReferenceArray<Attr.Escape> trueColorCache;
+
     ColorCategory(String name, int offset, int width, int colorCode) {
         super(name, offset, width, 273);
         this.colorCode = colorCode;
 
+        this.trueColorCache = Caches.create(TRUE_COLOR_CACHE_SIZE);
+
         for (int i = 0; i < 256; i++) {
             makeAttr(
                     "Full(" + i + ")",
@@ -34,12 +52,42 @@ final class ColorCategory extends Category {
     final String lookupEscape(long applyState) {
         int rawIndex = (int) (applyState >> offset);
         if (rawIndex < 273) return super.lookupEscape(applyState);
+        else return True(rawIndex - 273).escape;
+    }
+
+    /**
+     * Appends the escape sequence of a true color without looking up its attribute,
+     * so encoding a gradient does not allocate for each color.
+     */
+    @Override
+    final void appendEscape(long applyState, StringBuilder output) {
+        int rawIndex = (int) (applyState >> offset);
+        if (rawIndex < 273) {
+            super.appendEscape(applyState, output);
+        } else {
+            int index = rawIndex - 273;
+            output.append("\u001b[").append(colorCode).append(";2;")
+                    .append(index >> 16).append(';')
+                    .append((index >> 8) & 0xFF).append(';')
+                    .append(index & 0xFF).append('m');
+        }
+    }
+
+    @Override
+    final int lookupEscapeLength(long applyState) {
+        int rawIndex = (int) (applyState >> offset);
+        if (rawIndex < 273) return super.lookupEscapeLength(applyState);
         else {
             int index = rawIndex - 273;
-            return trueRgbEscape(index >> 16, (index & 0x00FF00) >> 8, index & 0x0000FF);
+            // "\u001b[" + colorCode + ";2;" + r + ";" + g + ";" + b + "m"
+            return 10 + decimalLength(index >> 16) + decimalLength((index >> 8) & 0xFF) + decimalLength(index & 0xFF);
         }
     }
 
+    private static int decimalLength(int value) {
+        return value < 10 ? 1 : value < 100 ? 2 : 3;
+    }
+
     @Override
     final Attr lookupAttr(long applyState) {
         int index = (int) (applyState >> offset);
@@ -48,7 +96,27 @@ final class ColorCategory extends Category {
     }
 
     private Attr.Escape true0(int r, int g, int b, int index) {
-        return makeAttr0("True(" + r + "," + g + "," + b + ")", trueRgbEscape(r, g, b), 273 + index);
+        final AtomicReferenceArray<Attr.Escape> cache = this.trueColorCache;
+        if (cache == null) {
+            return makeAttr0("True(" + r + "," + g + "," + b + ")", trueRgbEscape(r, g, b), 273 + index);
+        }
+
+        final int slot = Caches.slot(cache, index);
+        final long applyMask = (273L + index) << offset;
+
+        Attr.Escape attr = cache.get(slot);
+        if (attr == null || attr.applyMask != applyMask) {
+            attr = makeAttr0("True(" + r + "," + g + "," + b + ")", trueRgbEscape(r, g, b), 273 + index);
+            cache.set(slot, attr);
+        }
+        return attr;
+    }
+
+    /**
+     * Returns {@code true} if the color of this category in the {@code state} is a true color.
+     */
+    final boolean isTrueColor(long state) {
+        return ((state & mask()) >>> offset) >= 273;
     }
 
     final String trueRgbEscape(int r, int g, int b) {
@@ -69,9 +137,19 @@ final class ColorCategory extends Category {
         return r << 16 | g << 8 | b;
     }
 
+    /**
+     * Returns the apply value of the true color {@code rgb}, without creating the attribute.
+     */
+    long trueColorValue(int rgb) {
+        if (rgb < 0 || rgb >= (1 << 24)) {
+            throw new IllegalArgumentException("True color must be 0 <= rgb < 16777216, not " + rgb);
+        }
+        return (273L + rgb) << offset;
+    }
+
     Attr.Escape True(int index) {
-        if (index < 0 || index > (1 << 24)) {
-            throw new IllegalArgumentException("True parameter `index` must be 273 <= index <= 16777488, not " + index);
+        if (index < 0 || index >= (1 << 24)) {
+            throw new IllegalArgumentException("True parameter `index` must be 0 <= index < 16777216, not " + index);
         }
         int r = index >> 16;
         int g = (index & 0x00FF00) >> 8;
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+/**
+ * Maps between the indices of a plain text and its terminal columns.
+ *
+ * <p>The column of an index is the total width of the code points that start before it.
+ * The index keeps the column of every {@link #BLOCK_SIZE}-th character, so a lookup is a binary search
+ * over the blocks followed by a scan of at most one block.
+ * If every character occupies exactly one column, no blocks are kept at all.
+ *
+ * <p>Instances of this class are immutable.
+ *
+ * @see DisplayWidth
+ */
+final class ColumnIndex {
+    private static final int BLOCK_SHIFT = 6;
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private final String plain;
+    private final int width;
+
+    /**
+     * {@code columns[k]} is the column of the index {@code k * BLOCK_SIZE},
+     * or {@code null} if the column of each index is the index itself.
+     */
+    private final int[] columns;
+
+    private ColumnIndex(String plain, int width, int[] columns) {
+        this.plain = plain;
+        this.width = width;
+        this.columns = columns;
+    }
+
+    static ColumnIndex of(String plain) {
+        final int length = plain.length();
+
+        int i = 0;
+        while (i < length) {
+            final char ch = plain.charAt(i);
+            if (ch < 0x20 || ch >= 0x7F && DisplayWidth.of(ch) != 1 || Character.isSurrogate(ch)) {
+                break;
+            }
+            i++;
+        }
+        if (i == length) {
+            return new ColumnIndex(plain, length, null);
+        }
+
+        // The prefix before i occupies one column per character
+        final int[] columns = new int[(length >> BLOCK_SHIFT) + 1];
+        for (int k = 1; k <= i >> BLOCK_SHIFT; k++) {
+            columns[k] = k << BLOCK_SHIFT;
+        }
+        int column = i;
+
+        int nextBlock = ((i >> BLOCK_SHIFT) + 1) << BLOCK_SHIFT;
+        while (i < length) {
+            final int codePoint = DisplayWidth.codePointAt(plain, i, length);
+            column += DisplayWidth.of(codePoint);
+            i += Character.charCount(codePoint);
+            while (nextBlock <= i && nextBlock <= length) {
+                // A block that starts inside a surrogate pair includes the width of the pair
+                columns[nextBlock >> BLOCK_SHIFT] = column;
+                nextBlock += BLOCK_SIZE;
+            }
+        }
+        return new ColumnIndex(plain, column, columns);
+    }
+
+    /**
+     * Returns the total width of the plain text.
+     */
+    int width() {
+        return width;
+    }
+
+    /**
+     * Returns the smallest index whose column is not less than {@code column}.
+     */
+    int ceilIndex(int column) {
+        if (columns == null) {
+            return column;
+        }
+
+        // The last block that starts before the column
+        int low = 0;
+        int high = columns.length - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (columns[middle] < column) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        final int length = plain.length();
+        int i = blockStart(low);
+        int current = columns[low];
+        while (i < length && current < column) {
+            final int codePoint = DisplayWidth.codePointAt(plain, i, length);
+            current += DisplayWidth.of(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return i;
+    }
+
+    /**
+     * Returns the largest index whose column is not greater than {@code column}.
+     *
+     * <p>If {@code column} is less than {@link #width()}, this is the index of the code point that occupies the column.
+     */
+    int floorIndex(int column) {
+        if (columns == null) {
+            return column;
+        }
+
+        // The last block that starts at or before the column
+        int low = 0;
+        int high = columns.length - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (columns[middle] <= column) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        final int length = plain.length();
+        int i = blockStart(low);
+        int current = columns[low];
+        while (i < length) {
+            final int codePoint = DisplayWidth.codePointAt(plain, i, length);
+            final int next = current + DisplayWidth.of(codePoint);
+            if (next > column) {
+                break;
+            }
+            current = next;
+            i += Character.charCount(codePoint);
+        }
+        return i;
+    }
+
+    /**
+     * Returns the first index of the block {@code k} that is not inside a surrogate pair.
+     */
+    private int blockStart(int k) {
+        final int i = k << BLOCK_SHIFT;
+        if (i > 0 && i < plain.length() && Character.isLowSurrogate(plain.charAt(i)) && Character.isHighSurrogate(plain.charAt(i - 1))) {
+            return i + 1;
+        }
+        return i;
+    }
+
+    /**
+     * Returns {@code true} if the code point at {@code index} occupies no columns.
+     */
+    boolean isZeroWidth(int index) {
+        final int length = plain.length();
+        return index < length && DisplayWidth.of(DisplayWidth.codePointAt(plain, index, length)) == 0;
+    }
+}
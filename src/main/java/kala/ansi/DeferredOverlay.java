@@ -0,0 +1,150 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+/**
+ * A chain of overlays on an {@link AnsiString} that have been recorded but not yet applied,
+ * created by {@link AnsiString#deferOverlay()}.
+ *
+ * <p>Each call to {@code overlay} validates its range as {@link AnsiString#overlay(AnsiString.Attribute, int, int)}
+ * does and only records it. The recorded overlays are applied in a single pass over the states when
+ * {@link #toAnsiString()} or {@link #toString()} is first called. The result is equal to applying them
+ * one by one, and its states are the same as those of {@link AnsiString#overlayAll(boolean, Iterable)}
+ * with {@code trimStates} over the same ranges. Applying a chain of {@code n} overlays eagerly copies the states {@code n} times,
+ * so deferring them pays off for long strings from two overlays on. For strings of about a hundred characters
+ * the cost of the single pass is comparable to that of the copies, and the two are about even in time,
+ * though the deferred chain still allocates only one copy of the states.
+ * {@code DeferredOverlayBenchmark} in the benchmark source set measures both.
+ *
+ * <p>Instances of this class are immutable and can be shared between threads.
+ * A chain can be extended more than once, the chains share their common part.
+ */
+public final class DeferredOverlay {
+    private final AnsiString base;
+    private final DeferredOverlay previous;
+    private final AnsiString.Attribute attribute;
+    private final int start;
+    private final int end;
+
+    /**
+     * The number of overlays in this chain.
+     */
+    private final int depth;
+
+    private volatile AnsiString result;
+
+    DeferredOverlay(AnsiString base) {
+        this.base = base;
+        this.previous = null;
+        this.attribute = null;
+        this.start = 0;
+        this.end = 0;
+        this.depth = 0;
+        this.result = base;
+    }
+
+    private DeferredOverlay(DeferredOverlay previous, AnsiString.Attribute attribute, int start, int end) {
+        this.base = previous.base;
+        this.previous = previous;
+        this.attribute = attribute;
+        this.start = start;
+        this.end = end;
+        this.depth = previous.depth + 1;
+    }
+
+    /**
+     * Returns the length of the result, without applying the overlays.
+     */
+    public int length() {
+        return base.length();
+    }
+
+    /**
+     * Returns the plain text of the result, without applying the overlays.
+     */
+    public String getPlain() {
+        return base.getPlain();
+    }
+
+    public DeferredOverlay overlay(AnsiString.Attribute attribute) {
+        return overlay(attribute, 0, length());
+    }
+
+    public DeferredOverlay overlay(AnsiString.Attribute attribute, int start) {
+        return overlay(attribute, start, length());
+    }
+
+    public DeferredOverlay overlay(AnsiString.Attribute attribute, int start, int end) {
+        if (attribute == null) {
+            throw new NullPointerException();
+        }
+
+        final int length = this.length();
+        if (start > end) {
+            throw new IllegalArgumentException("startIndex(" + start + ") > endIndex(" + end + ")");
+        }
+        if (start < 0 || start >= length) {
+            throw new IndexOutOfBoundsException("Index out of range: " + start);
+        }
+        if (end > length) {
+            throw new IndexOutOfBoundsException("Index out of range: " + end);
+        }
+
+        if (start == end) {
+            return this;
+        }
+        return new DeferredOverlay(this, attribute, start, end);
+    }
+
+    /**
+     * Applies the recorded overlays, or returns the result of the previous call.
+     *
+     * @return the result string
+     */
+    public AnsiString toAnsiString() {
+        AnsiString result = this.result;
+        if (result == null) {
+            this.result = result = apply();
+        }
+        return result;
+    }
+
+    private AnsiString apply() {
+        final int count = depth;
+        final AnsiString.Attribute[] attributes = new AnsiString.Attribute[count];
+        final int[] starts = new int[count];
+        final int[] ends = new int[count];
+
+        DeferredOverlay node = this;
+        for (int i = count - 1; i >= 0; i--) {
+            attributes[i] = node.attribute;
+            starts[i] = node.start;
+            ends[i] = node.end;
+            node = node.previous;
+        }
+        return base.overlayAll0(true, attributes, null, starts, ends, count);
+    }
+
+    /**
+     * Applies the recorded overlays and returns the encoded result.
+     *
+     * @see AnsiString#toString()
+     */
+    @Override
+    public String toString() {
+        return toAnsiString().toString();
+    }
+}
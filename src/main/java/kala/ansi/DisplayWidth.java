@@ -0,0 +1,166 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The number of terminal columns occupied by code points.
+ *
+ * <p>Wide and fullwidth East Asian characters and most emoji occupy two columns,
+ * combining marks, format characters and control characters occupy none, and the others occupy one.
+ */
+final class DisplayWidth {
+    private DisplayWidth() {
+    }
+
+    /**
+     * Sorted, non-overlapping ranges of code points that occupy two columns, as pairs of inclusive bounds.
+     */
+    private static final int[] WIDE = {
+            0x1100, 0x115F, 0x231A, 0x231B, 0x2329, 0x232A, 0x23E9, 0x23EC, 0x23F0, 0x23F0, 0x23F3, 0x23F3,
+            0x25FD, 0x25FE, 0x2614, 0x2615, 0x2648, 0x2653, 0x267F, 0x267F, 0x2693, 0x2693, 0x26A1, 0x26A1,
+            0x26AA, 0x26AB, 0x26BD, 0x26BE, 0x26C4, 0x26C5, 0x26CE, 0x26CE, 0x26D4, 0x26D4, 0x26EA, 0x26EA,
+            0x26F2, 0x26F3, 0x26F5, 0x26F5, 0x26FA, 0x26FA, 0x26FD, 0x26FD, 0x2705, 0x2705, 0x270A, 0x270B,
+            0x2728, 0x2728, 0x274C, 0x274C, 0x274E, 0x274E, 0x2753, 0x2755, 0x2757, 0x2757, 0x2795, 0x2797,
+            0x27B0, 0x27B0, 0x27BF, 0x27BF, 0x2B1B, 0x2B1C, 0x2B50, 0x2B50, 0x2B55, 0x2B55, 0x2E80, 0x303E,
+            0x3041, 0x33FF, 0x3400, 0x4DBF, 0x4E00, 0x9FFF, 0xA000, 0xA4CF, 0xA960, 0xA97F, 0xAC00, 0xD7A3,
+            0xF900, 0xFAFF, 0xFE10, 0xFE19, 0xFE30, 0xFE6F, 0xFF00, 0xFF60, 0xFFE0, 0xFFE6,
+            0x16FE0, 0x16FE4, 0x17000, 0x18CFF, 0x1B000, 0x1B2FF, 0x1F004, 0x1F004, 0x1F0CF, 0x1F0CF,
+            0x1F18E, 0x1F18E, 0x1F191, 0x1F19A, 0x1F200, 0x1F251, 0x1F300, 0x1F64F, 0x1F680, 0x1F6FF,
+            0x1F7E0, 0x1F7EB, 0x1F900, 0x1F9FF, 0x1FA70, 0x1FAFF, 0x20000, 0x2FFFD, 0x30000, 0x3FFFD
+    };
+
+    /**
+     * Returns the number of columns ({@code 0}, {@code 1} or {@code 2}) occupied by the code point.
+     */
+    static int of(int codePoint) {
+        if (codePoint < 0x7F) {
+            return codePoint >= 0x20 ? 1 : 0;
+        }
+        if (codePoint < Table.LIMIT) {
+            return Table.of(codePoint);
+        }
+        return compute(codePoint);
+    }
+
+    private static int compute(int codePoint) {
+        if (codePoint < 0x7F) {
+            return codePoint >= 0x20 ? 1 : 0;
+        }
+        if (codePoint < 0xA0) {
+            return 0;
+        }
+        if (codePoint == 0xAD) {
+            return 1;
+        }
+
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.FORMAT:
+                return 0;
+            default:
+                break;
+        }
+        if (codePoint == 0x200B || (codePoint >= 0x1160 && codePoint <= 0x11FF)) {
+            return 0;
+        }
+        if (codePoint < WIDE[0]) {
+            return 1;
+        }
+
+        final int index = Arrays.binarySearch(WIDE, codePoint);
+        // An exact match is a bound, otherwise the insertion point is odd if the code point is inside a range
+        return index >= 0 || ((-index - 1) & 1) == 1 ? 2 : 1;
+    }
+
+    /**
+     * A two-level lookup table of the widths of the code points below {@link #LIMIT}.
+     *
+     * <p>The code points are divided into blocks of 256, and the widths of a block are computed when it is first used.
+     * Blocks in which all code points have the same width share one array.
+     */
+    private static final class Table {
+        static final int LIMIT = 0x40000;
+        static final int BLOCK_BITS = 8;
+        static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+
+        private static final byte[][] UNIFORM_BLOCKS = new byte[3][1 << BLOCK_BITS];
+
+        static {
+            for (int width = 0; width < UNIFORM_BLOCKS.length; width++) {
+                Arrays.fill(UNIFORM_BLOCKS[width], (byte) width);
+            }
+        }
+
+        private static final AtomicReferenceArray<byte[]> BLOCKS = new AtomicReferenceArray<>(LIMIT >> BLOCK_BITS);
+
+        static int of(int codePoint) {
+            final int index = codePoint >> BLOCK_BITS;
+            byte[] block = BLOCKS.get(index);
+            if (block == null) {
+                block = computeBlock(index);
+                BLOCKS.set(index, block);
+            }
+            return block[codePoint & BLOCK_MASK];
+        }
+
+        private static byte[] computeBlock(int index) {
+            final byte[] block = new byte[1 << BLOCK_BITS];
+            boolean uniform = true;
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (byte) compute((index << BLOCK_BITS) | i);
+                uniform &= block[i] == block[0];
+            }
+            return uniform ? UNIFORM_BLOCKS[block[0]] : block;
+        }
+    }
+
+    /**
+     * Returns the number of columns occupied by {@code text[begin, end)}.
+     */
+    static int of(CharSequence text, int begin, int end) {
+        int width = 0;
+        for (int i = begin; i < end; ) {
+            final char ch = text.charAt(i);
+            if (ch >= 0x20 && ch < 0x7F) {
+                width++;
+                i++;
+            } else {
+                final int codePoint = codePointAt(text, i, end);
+                width += of(codePoint);
+                i += Character.charCount(codePoint);
+            }
+        }
+        return width;
+    }
+
+    /**
+     * Returns the code point at {@code index}, a surrogate pair is only combined if it ends before {@code limit}.
+     */
+    static int codePointAt(CharSequence text, int index, int limit) {
+        final char ch = text.charAt(index);
+        if (Character.isHighSurrogate(ch) && index + 1 < limit) {
+            final char low = text.charAt(index + 1);
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(ch, low);
+            }
+        }
+        return ch;
+    }
+}
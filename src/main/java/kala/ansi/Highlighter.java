@@ -0,0 +1,466 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Highlights occurrences of a set of keywords in {@link AnsiString}s.
+ *
+ * <p>The keywords are compiled into an Aho&ndash;Corasick automaton, so the plain text is scanned once
+ * regardless of the number of keywords, and all matches are then applied to the states in a single sweep
+ * (see {@link AnsiString#overlayAll(AnsiString.Attribute[], int[], int[])}).
+ *
+ * <p>Every occurrence of every keyword is highlighted, including overlapping ones.
+ * Where occurrences overlap, the attribute of the keyword added later is applied last.
+ *
+ * <p>Instances of this class are immutable and can be shared between threads.
+ */
+public final class Highlighter {
+    /**
+     * The maximum size of the dense transition table, larger automata follow the failure links instead.
+     */
+    private static final int DENSE_LIMIT = 1 << 22;
+
+    private final boolean ignoreCase;
+
+    /**
+     * The character classes of the ASCII characters, {@code 0} if the character does not occur in any keyword.
+     */
+    private final int[] asciiClasses;
+
+    /**
+     * The sorted non-ASCII characters that occur in the keywords, the class of {@code alphabet[i]} is {@code alphabetClasses[i]}.
+     */
+    private final char[] alphabet;
+    private final int[] alphabetClasses;
+    private final int stride;
+
+    /**
+     * {@code transitions[state * stride + class]}, or {@code null} if the automaton is too large.
+     */
+    private final int[] transitions;
+
+    /**
+     * The goto function and failure links, only used if {@link #transitions} is {@code null}.
+     */
+    private final EdgeTable edges;
+    private final int[] failures;
+
+    /**
+     * The keyword that ends at each state, or {@code -1}.
+     */
+    private final int[] outputs;
+
+    /**
+     * The longest proper suffix of each state that has an output, or {@code -1}.
+     */
+    private final int[] dictionaryLinks;
+
+    private final int[] keywordLengths;
+
+    /**
+     * The previously added keyword that is the same as each keyword, or {@code -1}.
+     */
+    private final int[] previousDuplicates;
+    private final AnsiString.Attribute[] keywordAttributes;
+
+    private Highlighter(Builder builder) {
+        this.ignoreCase = builder.ignoreCase;
+
+        final int keywordCount = builder.keywords.size();
+        final String[] keywords = new String[keywordCount];
+        int totalLength = 0;
+        for (int i = 0; i < keywordCount; i++) {
+            final String keyword = builder.keywords.get(i);
+            keywords[i] = ignoreCase ? fold(keyword) : keyword;
+            totalLength += keyword.length();
+        }
+
+        // Compress the alphabet to the characters that occur in the keywords
+        final boolean[] asciiUsed = new boolean[128];
+        final StringBuilder others = new StringBuilder();
+        for (String keyword : keywords) {
+            for (int i = 0; i < keyword.length(); i++) {
+                final char ch = keyword.charAt(i);
+                if (ch < 128) {
+                    asciiUsed[ch] = true;
+                } else {
+                    others.append(ch);
+                }
+            }
+        }
+        final char[] otherChars = others.toString().toCharArray();
+        Arrays.sort(otherChars);
+        int distinct = 0;
+        for (int i = 0; i < otherChars.length; i++) {
+            if (i == 0 || otherChars[i] != otherChars[i - 1]) {
+                otherChars[distinct++] = otherChars[i];
+            }
+        }
+        this.alphabet = Arrays.copyOf(otherChars, distinct);
+
+        int classCount = 1;
+        final int[] foldedAsciiClasses = new int[128];
+        for (int ch = 0; ch < 128; ch++) {
+            if (asciiUsed[ch]) {
+                foldedAsciiClasses[ch] = classCount++;
+            }
+        }
+        this.alphabetClasses = new int[alphabet.length];
+        for (int i = 0; i < alphabet.length; i++) {
+            alphabetClasses[i] = classCount++;
+        }
+        this.asciiClasses = new int[128];
+        for (int ch = 0; ch < 128; ch++) {
+            asciiClasses[ch] = foldedAsciiClasses[ignoreCase ? fold((char) ch) : ch];
+        }
+        this.stride = classCount;
+
+        // Build the trie
+        final int maxStates = totalLength + 1;
+        final EdgeTable edges = new EdgeTable(totalLength);
+        final int[] outputs = new int[maxStates];
+        Arrays.fill(outputs, -1);
+        this.keywordLengths = new int[keywordCount];
+        this.previousDuplicates = new int[keywordCount];
+        this.keywordAttributes = builder.attributes.toArray(new AnsiString.Attribute[0]);
+
+        final int[] parents = new int[maxStates];
+        final int[] parentClasses = new int[maxStates];
+        final int[] depths = new int[maxStates];
+        int stateCount = 1;
+        for (int k = 0; k < keywordCount; k++) {
+            final String keyword = keywords[k];
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                final int c = classOf(keyword.charAt(i));
+                final long key = (long) state * stride + c;
+                int next = edges.get(key);
+                if (next < 0) {
+                    next = stateCount++;
+                    edges.put(key, next);
+                    parents[next] = state;
+                    parentClasses[next] = c;
+                    depths[next] = i + 1;
+                }
+                state = next;
+            }
+            previousDuplicates[k] = outputs[state];
+            outputs[state] = k;
+            keywordLengths[k] = keyword.length();
+        }
+
+        // Sort the states by depth, the failure link of a state always points to a shallower state
+        int maxDepth = 0;
+        for (int s = 0; s < stateCount; s++) {
+            maxDepth = Math.max(maxDepth, depths[s]);
+        }
+        final int[] depthOffsets = new int[maxDepth + 2];
+        for (int s = 0; s < stateCount; s++) {
+            depthOffsets[depths[s] + 1]++;
+        }
+        for (int d = 0; d <= maxDepth; d++) {
+            depthOffsets[d + 1] += depthOffsets[d];
+        }
+        final int[] order = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            order[depthOffsets[depths[s]]++] = s;
+        }
+
+        final boolean dense = (long) stateCount * stride <= DENSE_LIMIT;
+        final int[] transitions;
+        if (dense) {
+            transitions = new int[stateCount * stride];
+            Arrays.fill(transitions, -1);
+            for (int s = 1; s < stateCount; s++) {
+                transitions[parents[s] * stride + parentClasses[s]] = s;
+            }
+        } else {
+            transitions = null;
+        }
+
+        final int[] failures = new int[stateCount];
+        final int[] dictionaryLinks = new int[stateCount];
+        dictionaryLinks[0] = -1;
+        for (int s : order) {
+            if (s != 0) {
+                final int parent = parents[s];
+                final int c = parentClasses[s];
+                final int failure;
+                if (parent == 0) {
+                    failure = 0;
+                } else if (dense) {
+                    failure = transitions[failures[parent] * stride + c];
+                } else {
+                    failure = next(edges, failures, stride, failures[parent], c);
+                }
+                failures[s] = failure;
+                dictionaryLinks[s] = outputs[failure] >= 0 ? failure : dictionaryLinks[failure];
+            }
+
+            if (dense) {
+                final int row = s * stride;
+                final int failureRow = failures[s] * stride;
+                for (int c = 0; c < stride; c++) {
+                    if (transitions[row + c] < 0) {
+                        transitions[row + c] = s == 0 ? 0 : transitions[failureRow + c];
+                    }
+                }
+            }
+        }
+
+        this.transitions = transitions;
+        this.edges = dense ? null : edges;
+        this.failures = dense ? null : failures;
+        this.outputs = Arrays.copyOf(outputs, stateCount);
+        this.dictionaryLinks = dictionaryLinks;
+    }
+
+    /**
+     * Returns a new builder of {@code Highlighter}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static char fold(char ch) {
+        return Character.toLowerCase(Character.toUpperCase(ch));
+    }
+
+    private static String fold(String str) {
+        final char[] chars = str.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private int classOf(char ch) {
+        if (ch < 128) {
+            return asciiClasses[ch];
+        }
+        if (ignoreCase) {
+            ch = fold(ch);
+        }
+        if (ch < 128) {
+            return asciiClasses[ch];
+        }
+        final int index = Arrays.binarySearch(alphabet, ch);
+        return index >= 0 ? alphabetClasses[index] : 0;
+    }
+
+    private int next(int state, int c) {
+        if (c == 0) {
+            return 0;
+        }
+        if (transitions != null) {
+            return transitions[state * stride + c];
+        }
+        return next(edges, failures, stride, state, c);
+    }
+
+    private static int next(EdgeTable edges, int[] failures, int stride, int state, int c) {
+        while (true) {
+            final int target = edges.get((long) state * stride + c);
+            if (target >= 0) {
+                return target;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failures[state];
+        }
+    }
+
+    /**
+     * Highlights all occurrences of the keywords in the plain text of {@code string}.
+     *
+     * @param string the string to highlight
+     * @return the highlighted string, or {@code string} itself if no keyword occurs in it
+     */
+    public AnsiString highlight(AnsiString string) {
+        final String plain = string.plain;
+        final int length = plain.length();
+
+        int[] starts = null;
+        int[] ends = null;
+        int[] keywords = null;
+        int count = 0;
+        boolean sorted = true;
+
+        int state = 0;
+        for (int i = 0; i < length; i++) {
+            state = next(state, classOf(plain.charAt(i)));
+            for (int s = outputs[state] >= 0 ? state : dictionaryLinks[state]; s >= 0; s = dictionaryLinks[s]) {
+                for (int keyword = outputs[s]; keyword >= 0; keyword = previousDuplicates[keyword]) {
+                    if (starts == null) {
+                        starts = new int[8];
+                        ends = new int[8];
+                        keywords = new int[8];
+                    } else if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                        ends = Arrays.copyOf(ends, count * 2);
+                        keywords = Arrays.copyOf(keywords, count * 2);
+                    }
+                    starts[count] = i + 1 - keywordLengths[keyword];
+                    ends[count] = i + 1;
+                    keywords[count] = keyword;
+                    sorted &= count == 0 || keywords[count - 1] <= keyword;
+                    count++;
+                }
+            }
+        }
+
+        if (count == 0) {
+            return string;
+        }
+
+        final AnsiString.Attribute[] attributes = new AnsiString.Attribute[count];
+        if (sorted) {
+            for (int i = 0; i < count; i++) {
+                attributes[i] = keywordAttributes[keywords[i]];
+            }
+            return string.overlayAll0(false, attributes, null, starts, ends, count);
+        }
+
+        // Order the matches by keyword with a counting sort, so later keywords are applied later
+        final int[] offsets = new int[keywordAttributes.length + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[keywords[i] + 1]++;
+        }
+        for (int k = 0; k < keywordAttributes.length; k++) {
+            offsets[k + 1] += offsets[k];
+        }
+        final int[] sortedStarts = new int[count];
+        final int[] sortedEnds = new int[count];
+        for (int i = 0; i < count; i++) {
+            final int index = offsets[keywords[i]]++;
+            sortedStarts[index] = starts[i];
+            sortedEnds[index] = ends[i];
+            attributes[index] = keywordAttributes[keywords[i]];
+        }
+        return string.overlayAll0(false, attributes, null, sortedStarts, sortedEnds, count);
+    }
+
+    /**
+     * An open addressing hash table from {@code state * stride + class} to the child state.
+     */
+    private static final class EdgeTable {
+        private final long[] keys;
+        private final int[] values;
+        private final int mask;
+
+        EdgeTable(int expectedSize) {
+            int capacity = 16;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+            Arrays.fill(keys, -1L);
+        }
+
+        private int indexOf(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        int get(long key) {
+            for (int i = indexOf(key); ; i = (i + 1) & mask) {
+                final long k = keys[i];
+                if (k == key) {
+                    return values[i];
+                }
+                if (k == -1L) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(long key, int value) {
+            int i = indexOf(key);
+            while (keys[i] != -1L) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+    }
+
+    /**
+     * A builder of {@link Highlighter}.
+     */
+    public static final class Builder {
+        private final List<String> keywords = new ArrayList<>();
+        private final List<AnsiString.Attribute> attributes = new ArrayList<>();
+        private boolean ignoreCase = false;
+
+        Builder() {
+        }
+
+        /**
+         * Adds a keyword, its occurrences are highlighted with the {@code attribute}.
+         *
+         * @param keyword   the literal keyword
+         * @param attribute the attribute applied to the occurrences of the keyword
+         * @return this builder
+         * @throws IllegalArgumentException if {@code keyword} is empty
+         */
+        public Builder add(CharSequence keyword, AnsiString.Attribute attribute) {
+            final String str = keyword.toString();
+            if (attribute == null) {
+                throw new NullPointerException();
+            }
+            if (str.isEmpty()) {
+                throw new IllegalArgumentException("keyword is empty");
+            }
+            keywords.add(str);
+            attributes.add(attribute);
+            return this;
+        }
+
+        /**
+         * Adds the keywords, their occurrences are highlighted with the {@code attribute}.
+         *
+         * @return this builder
+         * @see #add(CharSequence, AnsiString.Attribute)
+         */
+        public Builder addAll(Iterable<? extends CharSequence> keywords, AnsiString.Attribute attribute) {
+            for (CharSequence keyword : keywords) {
+                add(keyword, attribute);
+            }
+            return this;
+        }
+
+        /**
+         * Sets whether the keywords are matched ignoring case, in the same way as {@link String#equalsIgnoreCase(String)}.
+         *
+         * @return this builder
+         */
+        public Builder ignoreCase(boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+            return this;
+        }
+
+        public Highlighter build() {
+            return new Highlighter(this);
+        }
+    }
+}
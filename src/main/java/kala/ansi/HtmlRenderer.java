@@ -0,0 +1,377 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Renders {@link AnsiString} as HTML.
+ *
+ * <p>The renderer walks the runs of equal states rather than the characters, and emits one {@code <span>}
+ * per run, either with inline styles or with a set of classes derived from the state.
+ * The plain text is escaped in the same pass.
+ *
+ * <p>For large inputs, use {@link #open(Appendable)} to render a sequence of {@code AnsiString}s
+ * (for example, the lines of a log) without concatenating them first.
+ *
+ * <p>Instances of this class are immutable and can be shared between threads.
+ */
+public final class HtmlRenderer {
+    private static final String[] BASIC_COLOR_NAMES = {
+            "black", "red", "green", "yellow", "blue", "magenta", "cyan", "light-gray",
+            "dark-gray", "light-red", "light-green", "light-yellow", "light-blue", "light-magenta", "light-cyan", "white"
+    };
+
+    private static final HtmlRenderer INLINE_STYLES = new HtmlRenderer(null);
+
+    /**
+     * The class prefix, or {@code null} if inline styles are used.
+     */
+    private final String classPrefix;
+
+    private HtmlRenderer(String classPrefix) {
+        this.classPrefix = classPrefix;
+    }
+
+    /**
+     * Returns a renderer that emits inline {@code style} attributes.
+     */
+    public static HtmlRenderer inlineStyles() {
+        return INLINE_STYLES;
+    }
+
+    /**
+     * Returns a renderer that emits {@code class} attributes, such as {@code prefix-bold} or {@code prefix-fg-red}.
+     *
+     * <p>True colors have no class and are still emitted as inline styles.
+     *
+     * @param prefix the prefix of the class names
+     * @see #styleSheet()
+     */
+    public static HtmlRenderer classes(String prefix) {
+        if (prefix == null) {
+            throw new NullPointerException();
+        }
+        if (prefix.isEmpty()) {
+            throw new IllegalArgumentException("prefix is empty");
+        }
+        return new HtmlRenderer(prefix);
+    }
+
+    /**
+     * Renders the {@code AnsiString} as HTML.
+     *
+     * @param string the string to render
+     * @return the HTML fragment
+     */
+    public String render(AnsiString string) {
+        StringBuilder builder = new StringBuilder(string.length() + (string.length() >> 1));
+        try {
+            render(string, builder);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Renders the {@code AnsiString} as HTML to {@code output}.
+     *
+     * @param string the string to render
+     * @param output the output
+     * @throws IOException if an I/O error occurs
+     */
+    public void render(AnsiString string, Appendable output) throws IOException {
+        Session session = new Session(output);
+        session.append(string);
+        session.close();
+    }
+
+    /**
+     * Opens a session that renders a sequence of {@code AnsiString}s to {@code output}.
+     *
+     * <p>A span that is still open at the end of a string is continued if the next string starts with the same state,
+     * so splitting the input does not change the output.
+     *
+     * @param output the output
+     * @return the session, which must be closed to close the last span
+     */
+    public Session open(Appendable output) {
+        if (output == null) {
+            throw new NullPointerException();
+        }
+        return new Session(output);
+    }
+
+    /**
+     * Returns the CSS rules for the classes emitted by this renderer.
+     *
+     * <p>The {@code prefix-reversed} rule swaps the default colors, and is overridden by the color classes,
+     * so the rules should be included in the order given.
+     *
+     * @return the style sheet, or an empty string if this renderer uses inline styles
+     */
+    public String styleSheet() {
+        if (classPrefix == null) {
+            return "";
+        }
+
+        StringBuilder builder = new StringBuilder(16384);
+        builder.append('.').append(classPrefix).append("-bold{font-weight:bold}\n");
+        builder.append('.').append(classPrefix).append("-underlined{text-decoration:underline}\n");
+        // Reversed default colors; the color rules below come later, so they override it on the swapped side
+        builder.append('.').append(classPrefix).append("-reversed{color:Canvas;background-color:CanvasText}\n");
+        for (int i = 0; i < 16; i++) {
+            appendColorRule(builder, "fg-" + BASIC_COLOR_NAMES[i], "color", Palette.XTERM_RGB[i]);
+            appendColorRule(builder, "bg-" + BASIC_COLOR_NAMES[i], "background-color", Palette.XTERM_RGB[i]);
+        }
+        for (int i = 0; i < 256; i++) {
+            appendColorRule(builder, "fg-" + i, "color", Palette.XTERM_RGB[i]);
+            appendColorRule(builder, "bg-" + i, "background-color", Palette.XTERM_RGB[i]);
+        }
+        return builder.toString();
+    }
+
+    private void appendColorRule(StringBuilder builder, String name, String property, int rgb) {
+        builder.append('.').append(classPrefix).append('-').append(name).append('{').append(property).append(':');
+        appendRgb(builder, rgb);
+        builder.append("}\n");
+    }
+
+    private static void appendRgb(StringBuilder builder, int rgb) {
+        try {
+            appendRgb((Appendable) builder, rgb);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void appendRgb(Appendable output, int rgb) throws IOException {
+        final String digits = "0123456789abcdef";
+        output.append('#');
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            output.append(digits.charAt((rgb >> shift) & 0xf));
+        }
+    }
+
+    private static int colorIndex(long state, ColorCategory category) {
+        return (int) ((state & category.mask()) >>> category.offset);
+    }
+
+    /**
+     * Returns the RGB value of a color index, or {@code -1} for the default color.
+     */
+    private static int colorRgb(int colorIndex) {
+        if (colorIndex == 0) {
+            return -1;
+        }
+        if (colorIndex <= 16) {
+            return Palette.XTERM_RGB[colorIndex - 1];
+        }
+        if (colorIndex < 273) {
+            return Palette.XTERM_RGB[colorIndex - 17];
+        }
+        return colorIndex - 273;
+    }
+
+    private void openSpan(long state, Appendable output) throws IOException {
+        int fg = colorIndex(state, AnsiString.Color.category);
+        int bg = colorIndex(state, AnsiString.Back.category);
+        final boolean bold = (state & AnsiString.Bold.category.mask()) != 0;
+        final boolean underlined = (state & AnsiString.Underlined.category.mask()) != 0;
+        final boolean reversed = (state & AnsiString.Reversed.category.mask()) != 0;
+
+        if (classPrefix == null) {
+            output.append("<span style=\"");
+            if (reversed) {
+                appendColorStyle(output, "color", bg, "Canvas");
+                appendColorStyle(output, "background-color", fg, "CanvasText");
+            } else {
+                appendColorStyle(output, "color", fg, null);
+                appendColorStyle(output, "background-color", bg, null);
+            }
+            if (bold) {
+                output.append("font-weight:bold;");
+            }
+            if (underlined) {
+                output.append("text-decoration:underline;");
+            }
+            output.append("\">");
+            return;
+        }
+
+        output.append("<span class=\"");
+        boolean first = true;
+        if (reversed) {
+            int t = fg;
+            fg = bg;
+            bg = t;
+            first = appendClass(output, "reversed", first);
+        }
+        if (bold) {
+            first = appendClass(output, "bold", first);
+        }
+        if (underlined) {
+            first = appendClass(output, "underlined", first);
+        }
+        if (fg != 0 && fg < 273) {
+            first = appendClass(output, fg <= 16 ? "fg-" + BASIC_COLOR_NAMES[fg - 1] : "fg-" + (fg - 17), first);
+        }
+        if (bg != 0 && bg < 273) {
+            appendClass(output, bg <= 16 ? "bg-" + BASIC_COLOR_NAMES[bg - 1] : "bg-" + (bg - 17), first);
+        }
+        output.append('"');
+
+        if (fg >= 273 || bg >= 273) {
+            output.append(" style=\"");
+            if (fg >= 273) {
+                appendColorStyle(output, "color", fg, null);
+            }
+            if (bg >= 273) {
+                appendColorStyle(output, "background-color", bg, null);
+            }
+            output.append('"');
+        }
+        output.append('>');
+    }
+
+    private boolean appendClass(Appendable output, String name, boolean first) throws IOException {
+        if (!first) {
+            output.append(' ');
+        }
+        output.append(classPrefix).append('-').append(name);
+        return false;
+    }
+
+    private static void appendColorStyle(Appendable output, String property, int colorIndex, String defaultColor) throws IOException {
+        final int rgb = colorRgb(colorIndex);
+        if (rgb < 0 && defaultColor == null) {
+            return;
+        }
+        output.append(property).append(':');
+        if (rgb < 0) {
+            output.append(defaultColor);
+        } else {
+            appendRgb(output, rgb);
+        }
+        output.append(';');
+    }
+
+    /**
+     * Appends {@code text[begin, end)} with HTML special characters escaped,
+     * the characters between two special characters are appended in bulk.
+     */
+    static void appendEscaped(CharSequence text, int begin, int end, Appendable output) throws IOException {
+        int last = begin;
+        for (int i = begin; i < end; i++) {
+            final String replacement;
+            switch (text.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                default:
+                    continue;
+            }
+            if (last < i) {
+                output.append(text, last, i);
+            }
+            output.append(replacement);
+            last = i + 1;
+        }
+        if (last < end) {
+            output.append(text, last, end);
+        }
+    }
+
+    /**
+     * Renders a sequence of {@code AnsiString}s, keeping the current span open between them.
+     *
+     * <p>Instances of this class are not thread safe.
+     */
+    public final class Session implements Closeable {
+        private final Appendable output;
+        private long currentState = 0L;
+        private boolean closed = false;
+
+        Session(Appendable output) {
+            this.output = output;
+        }
+
+        /**
+         * Renders the {@code AnsiString} to the output of this session.
+         *
+         * @param string the string to render
+         * @return this session
+         * @throws IOException if an I/O error occurs
+         */
+        public Session append(AnsiString string) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Session is closed");
+            }
+
+            final String plain = string.getPlain();
+            final int length = plain.length();
+
+            int i = 0;
+            while (i < length) {
+                final int runLimit = string.runLimit(i, length);
+                final long state = string.state0(i);
+                if (state != currentState) {
+                    if (currentState != 0L) {
+                        output.append("</span>");
+                    }
+                    if (state != 0L) {
+                        openSpan(state, output);
+                    }
+                    currentState = state;
+                }
+                appendEscaped(plain, i, runLimit, output);
+                i = runLimit;
+            }
+            return this;
+        }
+
+        /**
+         * Closes the last open span. This does not close the underlying output.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (currentState != 0L) {
+                output.append("</span>");
+                currentState = 0L;
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The fast path of {@link AnsiString.Overlayable#overlay(CharSequence)} for literals without escape sequences.
+ *
+ * <p>Since all characters of such a literal have the state {@code 0}, an attribute gives all of them the state
+ * {@code applyMask} of the attribute, and the result is built directly without parsing the literal.
+ *
+ * <p>The results for short {@code String}s can also be memoized in a direct-mapped cache, whose size can be configured
+ * with the {@code kala.ansi.literalCacheSize} system property. The cache is disabled by default.
+ *
+ * @see Caches#size(String, int)
+ */
+final class LiteralOverlay {
+    private LiteralOverlay() {
+    }
+
+    /**
+     * Literals longer than this are not cached.
+     */
+    private static final int MAX_CACHED_LENGTH = 64;
+
+    private static final AtomicReferenceArray<Entry> CACHE = Caches.create(Caches.size("kala.ansi.literalCacheSize", 0));
+
+    /**
+     * Creates a cache with at least {@code size} slots, or returns {@code null} if {@code size} is not positive.
+     */
+    static AtomicReferenceArray<Entry> createCache(int size) {
+        return Caches.create(Caches.roundSize(size));
+    }
+
+    static final class Entry {
+        final long state;
+        final String literal;
+        final AnsiString result;
+
+        Entry(long state, String literal, AnsiString result) {
+            this.state = state;
+            this.literal = literal;
+            this.result = result;
+        }
+    }
+
+    static AnsiString overlay(AnsiString.Attribute attribute, CharSequence string) {
+        return overlay(CACHE, attribute, string);
+    }
+
+    static AnsiString overlay(AtomicReferenceArray<Entry> cache, AnsiString.Attribute attribute, CharSequence string) {
+        final int length = string.length();
+        // Overlaying the empty string fails, which is left to the general path
+        if (length == 0 || hasEscape(string)) {
+            return AnsiString.parse(string).overlay(attribute);
+        }
+
+        final long state = attribute.applyMask;
+        if (cache == null || length > MAX_CACHED_LENGTH || !(string instanceof String)) {
+            return create(string.toString(), state);
+        }
+
+        final String literal = (String) string;
+        final int slot = Caches.slot(cache, state, literal.hashCode());
+
+        final Entry entry = cache.get(slot);
+        if (entry != null && entry.state == state && entry.literal.equals(literal)) {
+            return entry.result;
+        }
+        final AnsiString result = create(literal, state);
+        cache.set(slot, new Entry(state, literal, result));
+        return result;
+    }
+
+    private static AnsiString create(String plain, long state) {
+        if (state == 0L) {
+            return AnsiString.of0(plain, null, 0);
+        }
+        final long[] states = new long[plain.length()];
+        Arrays.fill(states, state);
+        return AnsiString.of0(plain, states, 0);
+    }
+
+    private static boolean hasEscape(CharSequence string) {
+        if (string instanceof String) {
+            final String str = (String) string;
+            return str.indexOf('\u001b') >= 0 || str.indexOf('\u009b') >= 0;
+        }
+        for (int i = 0, length = string.length(); i < length; i++) {
+            final char ch = string.charAt(i);
+            if (ch == '\u001b' || ch == '\u009b') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
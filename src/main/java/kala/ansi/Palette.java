@@ -0,0 +1,178 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+/**
+ * Nearest-color lookup tables used to downsample colors to terminals with fewer colors.
+ *
+ * <p>Color indices follow the layout of {@link ColorCategory}: {@code 0} is the reset color,
+ * {@code 1..16} are the 16 basic colors, {@code 17..272} are the 256 xterm colors
+ * and {@code 273} and above are true colors.
+ */
+final class Palette {
+    private Palette() {
+    }
+
+    /**
+     * Number of bits kept per channel when quantizing true colors.
+     */
+    private static final int QUANTIZE_BITS = 5;
+
+    private static final int[] CUBE_LEVELS = {0, 95, 135, 175, 215, 255};
+
+    /**
+     * RGB values of the 256 xterm colors, using the default xterm palette for the first 16 colors.
+     */
+    static final int[] XTERM_RGB = new int[256];
+
+    static {
+        final int[] basic = {
+                0x000000, 0xcd0000, 0x00cd00, 0xcdcd00, 0x0000ee, 0xcd00cd, 0x00cdcd, 0xe5e5e5,
+                0x7f7f7f, 0xff0000, 0x00ff00, 0xffff00, 0x5c5cff, 0xff00ff, 0x00ffff, 0xffffff
+        };
+        System.arraycopy(basic, 0, XTERM_RGB, 0, 16);
+        for (int i = 0; i < 216; i++) {
+            XTERM_RGB[16 + i] = CUBE_LEVELS[i / 36] << 16 | CUBE_LEVELS[(i / 6) % 6] << 8 | CUBE_LEVELS[i % 6];
+        }
+        for (int i = 0; i < 24; i++) {
+            int level = 8 + 10 * i;
+            XTERM_RGB[232 + i] = level << 16 | level << 8 | level;
+        }
+    }
+
+    private static final class RgbTo256 {
+        /**
+         * Maps a quantized RGB value to the nearest color in the xterm color cube and grayscale ramp.
+         */
+        static final byte[] TABLE = new byte[1 << (QUANTIZE_BITS * 3)];
+
+        static {
+            final int shift = 8 - QUANTIZE_BITS;
+            final int half = 1 << (shift - 1);
+            final int channelMask = (1 << QUANTIZE_BITS) - 1;
+
+            for (int i = 0; i < TABLE.length; i++) {
+                int r = ((i >> (QUANTIZE_BITS * 2)) << shift) | half;
+                int g = (((i >> QUANTIZE_BITS) & channelMask) << shift) | half;
+                int b = ((i & channelMask) << shift) | half;
+                TABLE[i] = (byte) nearest256(r, g, b);
+            }
+        }
+    }
+
+    private static final class To16 {
+        /**
+         * Maps a xterm color index to the nearest of the first 16 xterm colors.
+         */
+        static final byte[] TABLE = new byte[256];
+
+        static {
+            for (int i = 0; i < 16; i++) {
+                TABLE[i] = (byte) i;
+            }
+            for (int i = 16; i < 256; i++) {
+                final int rgb = XTERM_RGB[i];
+                int best = 0;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int j = 0; j < 16; j++) {
+                    int distance = distance(rgb, XTERM_RGB[j]);
+                    if (distance < bestDistance) {
+                        best = j;
+                        bestDistance = distance;
+                    }
+                }
+                TABLE[i] = (byte) best;
+            }
+        }
+    }
+
+    private static int nearestCubeLevel(int value) {
+        if (value < 48) return 0;
+        if (value < 115) return 1;
+        return Math.min((value - 35) / 40, 5);
+    }
+
+    private static int nearest256(int r, int g, int b) {
+        final int cube = 16 + 36 * nearestCubeLevel(r) + 6 * nearestCubeLevel(g) + nearestCubeLevel(b);
+
+        final int average = (r + g + b) / 3;
+        final int grayIndex = average < 8 ? 0 : Math.min((average - 3) / 10, 23);
+        final int gray = 232 + grayIndex;
+
+        final int rgb = r << 16 | g << 8 | b;
+        return distance(rgb, XTERM_RGB[gray]) < distance(rgb, XTERM_RGB[cube]) ? gray : cube;
+    }
+
+    private static int distance(int rgb1, int rgb2) {
+        int dr = ((rgb1 >> 16) & 0xff) - ((rgb2 >> 16) & 0xff);
+        int dg = ((rgb1 >> 8) & 0xff) - ((rgb2 >> 8) & 0xff);
+        int db = (rgb1 & 0xff) - (rgb2 & 0xff);
+        return dr * dr + dg * dg + db * db;
+    }
+
+    /**
+     * Returns the xterm color index ({@code 16..255}) nearest to the 24-bit RGB value.
+     */
+    static int rgbTo256(int rgb) {
+        final int shift = 8 - QUANTIZE_BITS;
+        final int channelMask = (1 << QUANTIZE_BITS) - 1;
+        final int q = (((rgb >> (16 + shift)) & channelMask) << (QUANTIZE_BITS * 2))
+                | (((rgb >> (8 + shift)) & channelMask) << QUANTIZE_BITS)
+                | ((rgb >> shift) & channelMask);
+        return RgbTo256.TABLE[q] & 0xff;
+    }
+
+    /**
+     * Returns the index ({@code 0..15}) of the basic color nearest to the xterm color {@code index256}.
+     */
+    static int to16(int index256) {
+        return To16.TABLE[index256];
+    }
+
+    /**
+     * Maps a color index to a color index that only refers to the 256 xterm colors.
+     */
+    static int toColorIndex256(int colorIndex) {
+        return colorIndex < 273 ? colorIndex : 17 + rgbTo256(colorIndex - 273);
+    }
+
+    /**
+     * Maps a color index to a color index that only refers to the 16 basic colors.
+     */
+    static int toColorIndex16(int colorIndex) {
+        if (colorIndex <= 16) {
+            return colorIndex;
+        }
+        final int index256 = colorIndex < 273 ? colorIndex - 17 : rgbTo256(colorIndex - 273);
+        return 1 + to16(index256);
+    }
+
+    static long mapColors(long state, boolean only16) {
+        state = mapColor(state, AnsiString.Color.category, only16);
+        state = mapColor(state, AnsiString.Back.category, only16);
+        return state;
+    }
+
+    private static long mapColor(long state, ColorCategory category, boolean only16) {
+        final long mask = category.mask();
+        final int colorIndex = (int) ((state & mask) >>> category.offset);
+        final int newIndex = only16 ? toColorIndex16(colorIndex) : toColorIndex256(colorIndex);
+        if (newIndex == colorIndex) {
+            return state;
+        }
+        return (state & ~mask) | ((long) newIndex << category.offset);
+    }
+}
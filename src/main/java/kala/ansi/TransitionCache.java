@@ -0,0 +1,112 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A direct-mapped cache of the escape sequences emitted between two states.
+ *
+ * <p>Transitions from or to a true color are not cached, since there are too many of them to hit again,
+ * and caching them would allocate for every transition of a gradient.
+ *
+ * <p>The size can be configured with the {@code kala.ansi.transitionCacheSize} system property.
+ *
+ * @see Caches#size(String, int)
+ */
+final class TransitionCache {
+    private TransitionCache() {
+    }
+
+    private static final AtomicReferenceArray<Entry> CACHE = Caches.create(Caches.size("kala.ansi.transitionCacheSize", 4096));
+
+    private static final class Entry {
+        final long currentState;
+        final long nextState;
+        final String codes;
+
+        Entry(long currentState, long nextState, String codes) {
+            this.currentState = currentState;
+            this.nextState = nextState;
+            this.codes = codes;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the transition between the two states is cached.
+     */
+    static boolean isCacheable(long currentState, long nextState) {
+        final ColorCategory color = AnsiString.Color.category;
+        final ColorCategory back = AnsiString.Back.category;
+        return !color.isTrueColor(currentState) && !color.isTrueColor(nextState)
+                && !back.isTrueColor(currentState) && !back.isTrueColor(nextState);
+    }
+
+    /**
+     * Returns the length of the escape sequences between the two states, without caching them on a miss.
+     */
+    static int length(long currentState, long nextState) {
+        final AtomicReferenceArray<Entry> cache = CACHE;
+        if (cache != null && isCacheable(currentState, nextState)) {
+            final Entry entry = cache.get(Caches.slot(cache, currentState, nextState));
+            if (entry != null && entry.currentState == currentState && entry.nextState == nextState) {
+                return entry.codes.length();
+            }
+        }
+        return AnsiString.Attribute.ansiCodesLength(currentState, nextState);
+    }
+
+    /**
+     * Appends the escape sequences between the two states to {@code output}, and caches them on a miss
+     * if the transition is {@linkplain #isCacheable(long, long) cacheable}.
+     */
+    static void append(long currentState, long nextState, StringBuilder output) {
+        final AtomicReferenceArray<Entry> cache = CACHE;
+        if (cache == null || !isCacheable(currentState, nextState)) {
+            AnsiString.Attribute.emitAnsiCodes0(currentState, nextState, output);
+            return;
+        }
+
+        final int slot = Caches.slot(cache, currentState, nextState);
+        final Entry entry = cache.get(slot);
+        if (entry != null && entry.currentState == currentState && entry.nextState == nextState) {
+            output.append(entry.codes);
+        } else {
+            final int start = output.length();
+            AnsiString.Attribute.emitAnsiCodes0(currentState, nextState, output);
+            cache.set(slot, new Entry(currentState, nextState, output.substring(start)));
+        }
+    }
+
+    /**
+     * Returns the escape sequences between the two states, and caches them on a miss
+     * if the transition is {@linkplain #isCacheable(long, long) cacheable}.
+     */
+    static String get(long currentState, long nextState) {
+        final AtomicReferenceArray<Entry> cache = CACHE;
+        if (cache == null || !isCacheable(currentState, nextState)) {
+            return AnsiString.Attribute.emitAnsiCodes(currentState, nextState);
+        }
+
+        final int slot = Caches.slot(cache, currentState, nextState);
+        Entry entry = cache.get(slot);
+        if (entry == null || entry.currentState != currentState || entry.nextState != nextState) {
+            entry = new Entry(currentState, nextState, AnsiString.Attribute.emitAnsiCodes(currentState, nextState));
+            cache.set(slot, entry);
+        }
+        return entry.codes;
+    }
+}
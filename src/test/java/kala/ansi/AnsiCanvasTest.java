@@ -0,0 +1,87 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnsiCanvasTest {
+    @Test
+    void draw() {
+        AnsiCanvas canvas = new AnsiCanvas(3, 6)
+                .draw(0, 1, AnsiString.Color.Red.overlay("ab\ncd"))
+                .draw(2, -1, AnsiString.ofPlain("xyz\u4e2d\u6587"))
+                .draw(1, 4, AnsiString.ofPlain("e\u0301fg"));
+
+        assertEquals(" ab   ", canvas.row(0).getPlain());
+        assertEquals(" cd ef", canvas.row(1).getPlain());
+        assertEquals("yz\u4e2d\u6587", canvas.row(2).getPlain());
+        assertEquals(-1, canvas.codePointAt(2, 3));
+        assertEquals(AnsiString.ofPlain(" ").concat(AnsiString.Color.Red.overlay("cd")).concat(AnsiString.ofPlain(" ef")), canvas.row(1));
+
+        // Overwriting half of a wide character replaces the other half with a space
+        canvas.draw(2, 3, AnsiString.ofPlain("!"));
+        assertEquals("yz !\u6587", canvas.row(2).getPlain());
+        canvas.draw(2, 5, AnsiString.ofPlain("\u4e2d"));
+        assertEquals("yz !  ", canvas.row(2).getPlain());
+
+        AnsiCanvas panel = new AnsiCanvas(2, 3).fill(0, 0, 2, 3, '#', AnsiString.Back.Blue);
+        canvas.draw(1, -1, panel).draw(-1, 4, panel);
+        assertEquals(" ab ##", canvas.row(0).getPlain());
+        assertEquals("##d ef", canvas.row(1).getPlain());
+        assertEquals(AnsiString.Back.Blue.overlay("##"), canvas.row(1).substring(0, 2));
+    }
+
+    @Test
+    void boxAndOverlay() {
+        AnsiCanvas canvas = new AnsiCanvas(4, 5)
+                .box(0, 0, 4, 5, AnsiTable.Border.ASCII, AnsiString.Color.Green)
+                .draw(1, 1, AnsiString.ofPlain("hi"))
+                .overlay(AnsiString.Bold.On, 1, 1, 1, 10);
+
+        assertEquals(
+                "+---+\n" +
+                        "|hi |\n" +
+                        "|   |\n" +
+                        "+---+",
+                canvas.toAnsiString().getPlain()
+        );
+        assertEquals(AnsiString.Attribute.of(AnsiString.Color.Green, AnsiString.Bold.On).transform(0L), canvas.stateAt(1, 4));
+        assertEquals(AnsiString.Bold.On.transform(0L), canvas.stateAt(1, 1));
+        assertEquals(canvas.toAnsiString(), AnsiString.parse(canvas.toString()));
+
+        AnsiCanvas small = new AnsiCanvas(1, 1).box(0, 0, 1, 1, AnsiTable.Border.UNICODE, AnsiString.Bold.On);
+        assertEquals(" ", small.toString());
+    }
+
+    @Test
+    void render() throws IOException {
+        AnsiCanvas canvas = new AnsiCanvas(2, 4)
+                .draw(0, 0, AnsiString.Color.True(1, 2, 3).overlay("ab"))
+                .draw(1, 2, AnsiString.Color.Red.overlay("cd"));
+
+        StringBuilder builder = new StringBuilder();
+        canvas.render(builder, AnsiString.ColorLevel.TRUE_COLOR);
+        assertEquals(canvas.row(0).toString() + "\n" + canvas.row(1).toString(), builder.toString());
+
+        builder.setLength(0);
+        canvas.render(builder, AnsiString.ColorLevel.NO_COLOR);
+        assertEquals("ab  \n  cd", builder.toString());
+    }
+}
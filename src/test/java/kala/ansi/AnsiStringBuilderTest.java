@@ -0,0 +1,67 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import org.junit.jupiter.api.*;
+
+import static kala.ansi.AnsiStringTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnsiStringBuilderTest {
+    @Test
+    void append() {
+        AnsiString s = AnsiString.parse(rgbOps);
+
+        AnsiStringBuilder builder = new AnsiStringBuilder(0);
+        builder.append(s).append(s).append(AnsiString.ofPlain("!"));
+        assertEquals(AnsiString.concat(s, s, AnsiString.ofPlain("!")), builder.build());
+
+        builder.setLength(0);
+        builder.append("foo", AnsiString.Color.Red).append('!', AnsiString.Bold.On.transform(0));
+        assertEquals(AnsiString.Color.Red.overlay("foo").concat(AnsiString.Bold.On.overlay("!")), builder.build());
+
+        builder.setLength(3);
+        builder.append(s, 2, 5);
+        assertEquals(AnsiString.Color.Red.overlay("foo").concat(s.substring(2, 5)), builder.build());
+    }
+
+    @Test
+    void insertAndOverlay() {
+        AnsiString s = AnsiString.parse(rgbOps);
+
+        AnsiStringBuilder builder = new AnsiStringBuilder(s);
+        builder.insert(3, AnsiString.Color.Yellow.overlay("[]"));
+        assertEquals(s.substring(0, 3).concat(AnsiString.Color.Yellow.overlay("[]")).concat(s.substring(3, s.length())), builder.build());
+
+        builder.overlay(AnsiString.Underlined.On, 0, 4);
+        assertEquals(
+                s.substring(0, 3).concat(AnsiString.Color.Yellow.overlay("[]")).concat(s.substring(3, s.length()))
+                        .overlay(AnsiString.Underlined.On, 0, 4),
+                builder.build()
+        );
+    }
+
+    @Test
+    void trimStates() {
+        AnsiStringBuilder builder = new AnsiStringBuilder();
+        builder.append("  ", AnsiString.Color.Reset).append("x", AnsiString.Color.Red).append("  ", AnsiString.Color.Reset);
+
+        AnsiString res = builder.build();
+        assertEquals(2, res.statesFrom);
+        assertArrayEquals(new long[]{AnsiString.Color.Red.transform(0)}, res.states);
+        assertSame(AnsiString.EMPTY, new AnsiStringBuilder().build());
+    }
+}
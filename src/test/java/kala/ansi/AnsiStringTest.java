@@ -17,6 +17,27 @@ package kala.ansi;
 
 import org.junit.jupiter.api.*;
 
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IllegalFormatConversionException;
+import java.util.IllegalFormatFlagsException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.MissingFormatArgumentException;
+import java.util.MissingFormatWidthException;
+import java.util.Random;
+import java.util.UnknownFormatConversionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @SuppressWarnings("SpellCheckingInspection")
@@ -30,6 +51,7 @@ class AnsiStringTest {
     static final String REV = ((Attr) AnsiString.Reversed.On).escape;
     static final String DREV = ((Attr) AnsiString.Reversed.Off).escape;
     static final String DCOL = ((Attr) AnsiString.Color.Reset).escape;
+    static final String DBACK = ((Attr) AnsiString.Back.Reset).escape;
     static final String RES = ((Attr) AnsiString.Reset).escape;
 
     /**
@@ -192,6 +214,59 @@ class AnsiStringTest {
             }
         }
 
+        @Test
+        void literal() {
+            AnsiString.Attribute[] attributes = {
+                    AnsiString.Color.Red, AnsiString.Bold.On, AnsiString.Color.Reset, AnsiString.Reset,
+                    AnsiString.Back.True(1, 2, 3), AnsiString.Color.Red.concat(AnsiString.Underlined.On)
+            };
+            CharSequence[] literals = {"ERROR", new StringBuilder("WARN"), rgbOps, "x" + R};
+            for (AnsiString.Attribute attribute : attributes) {
+                for (CharSequence literal : literals) {
+                    assertEquals(AnsiString.parse(literal).overlay(attribute), attribute.overlay(literal));
+                }
+                assertThrows(IndexOutOfBoundsException.class, () -> attribute.overlay(""));
+            }
+            assertEquals(R + "ERROR" + RTC, AnsiString.Color.Red.overlay("ERROR").toString());
+        }
+
+        @Test
+        void literalCache() {
+            AtomicReferenceArray<LiteralOverlay.Entry> cache = LiteralOverlay.createCache(1);
+            assertEquals(1, cache.length());
+
+            AnsiString red = LiteralOverlay.overlay(cache, AnsiString.Color.Red, "ERROR");
+            assertEquals(AnsiString.parse("ERROR").overlay(AnsiString.Color.Red), red);
+            assertSame(red, LiteralOverlay.overlay(cache, AnsiString.Color.Red, "ERROR"));
+            assertSame(red, LiteralOverlay.overlay(cache, AnsiString.Color.Red, new String("ERROR")));
+
+            // The literal has no state to reset, so attributes with the same apply mask share the result
+            assertSame(red, LiteralOverlay.overlay(cache, AnsiString.Attribute.of(AnsiString.Color.Red, AnsiString.Bold.Off), "ERROR"));
+
+            // Every key collides in a cache with a single slot
+            AnsiString warn = LiteralOverlay.overlay(cache, AnsiString.Color.Red, "WARN");
+            assertEquals(AnsiString.parse("WARN").overlay(AnsiString.Color.Red), warn);
+            AnsiString red2 = LiteralOverlay.overlay(cache, AnsiString.Color.Red, "ERROR");
+            assertEquals(red, red2);
+            assertNotSame(red, red2);
+
+            AnsiString green = LiteralOverlay.overlay(cache, AnsiString.Color.Green, "ERROR");
+            assertEquals(AnsiString.parse("ERROR").overlay(AnsiString.Color.Green), green);
+            assertNotEquals(red, green);
+            assertSame(green, LiteralOverlay.overlay(cache, AnsiString.Color.Green, "ERROR"));
+
+            // Literals that are too long or not Strings are not cached
+            String longLiteral = String.join("", Collections.nCopies(65, "x"));
+            assertNotSame(LiteralOverlay.overlay(cache, AnsiString.Color.Red, longLiteral),
+                    LiteralOverlay.overlay(cache, AnsiString.Color.Red, longLiteral));
+            StringBuilder builder = new StringBuilder("ERROR");
+            assertNotSame(LiteralOverlay.overlay(cache, AnsiString.Color.Red, builder),
+                    LiteralOverlay.overlay(cache, AnsiString.Color.Red, builder));
+
+            assertNull(LiteralOverlay.createCache(0));
+            assertEquals(red, LiteralOverlay.overlay(null, AnsiString.Color.Red, "ERROR"));
+        }
+
         @Test
         void overlayAll() {
             String overlayed = AnsiString.parse(rgbOps).overlayAll(
@@ -203,5 +278,568 @@ class AnsiStringTest {
             String expected = String.format("+++%s-%s%s-%s-%s*%s%s**///%s", R, Y, UND, DUND, UND, B, DUND, DCOL);
             assertEquals(expected, overlayed);
         }
+
+        @Test
+        void overlayAllBatch() {
+            AnsiString.Attribute[] candidates = {
+                    AnsiString.Color.Yellow, AnsiString.Back.Blue, AnsiString.Underlined.On, AnsiString.Underlined.Off,
+                    AnsiString.Bold.On, AnsiString.Color.Reset, AnsiString.Reset, AnsiString.Color.True(1, 2, 3)
+            };
+
+            AnsiString str = AnsiString.parse(rgbOps);
+            Random random = new Random(0);
+            for (int round = 0; round < 200; round++) {
+                final int count = random.nextInt(8);
+                AnsiString.Attribute[] attributes = new AnsiString.Attribute[count];
+                int[] starts = new int[count];
+                int[] ends = new int[count];
+
+                AnsiString plain = AnsiString.ofPlain(str.getPlain());
+                AnsiString expected = str;
+                AnsiString expectedPlain = plain;
+                for (int i = 0; i < count; i++) {
+                    attributes[i] = candidates[random.nextInt(candidates.length)];
+                    starts[i] = random.nextInt(str.length());
+                    ends[i] = starts[i] + random.nextInt(str.length() - starts[i] + 1);
+                    expected = expected.overlay(attributes[i], starts[i], ends[i]);
+                    expectedPlain = expectedPlain.overlay(attributes[i], starts[i], ends[i]);
+                }
+
+                assertEquals(expected, str.overlayAll(attributes, starts, ends));
+                assertEquals(expectedPlain, plain.overlayAll(attributes, starts, ends));
+            }
+
+            AnsiString plain = AnsiString.ofPlain("0123456789");
+            assertEquals(
+                    plain.overlay(AnsiString.Bold.On, 1, 3).overlay(AnsiString.Bold.On, 2, 6),
+                    plain.overlayAll(AnsiString.Bold.On, new int[]{1, 2}, new int[]{3, 6})
+            );
+            assertSame(plain, plain.overlayAll(AnsiString.Bold.Off, new int[]{1, 2}, new int[]{3, 6}));
+            assertThrows(IndexOutOfBoundsException.class, () -> plain.overlayAll(AnsiString.Bold.On, new int[]{1}, new int[]{11}));
+        }
+    }
+
+    @Nested
+    @DisplayName("true color")
+    class TrueColorTest {
+        @Test
+        void cached() {
+            assertSame(AnsiString.Color.True(1, 2, 3), AnsiString.Color.True(1, 2, 3));
+            assertSame(AnsiString.Back.True(1, 2, 3), AnsiString.Back.True(1, 2, 3));
+            assertNotSame(AnsiString.Color.True(1, 2, 3), AnsiString.Back.True(1, 2, 3));
+
+            AnsiString.Attribute attr = AnsiString.Color.True(255, 128, 0);
+            long state = attr.transform(0);
+            assertSame(attr, AnsiString.Color.category.lookupAttr(state & AnsiString.Color.category.mask()));
+        }
+
+        @Test
+        void roundTrip() {
+            String fore = "\u001b[38;2;255;128;0m";
+            String back = "\u001b[48;2;1;2;3m";
+            String raw = "a" + fore + "b" + back + "c" + RES + "d";
+
+            AnsiString parsed = AnsiString.parse(raw);
+            assertEquals("abcd", parsed.getPlain());
+            assertEquals(AnsiString.Color.True(255, 128, 0).transform(0), parsed.stateAt(1));
+            assertEquals(AnsiString.Back.True(1, 2, 3).transform(AnsiString.Color.True(255, 128, 0).transform(0)), parsed.stateAt(2));
+            assertEquals("a" + fore + "b" + back + "c" + DCOL + DBACK + "d", parsed.toString());
+        }
+    }
+
+    @Test
+    void split() {
+        AnsiString str = AnsiString.parse(rgbOps).concat(AnsiString.parse("," + rgbOps + ",,"));
+        String plain = str.getPlain();
+
+        for (String separator : new String[]{"-", "+", ",", "--", "*/", "xx", "//"}) {
+            String[] expected = plain.split(Pattern.quote(separator));
+            assertArrayEquals(
+                    expected,
+                    str.split(separator).map(AnsiString::getPlain).toArray(),
+                    separator
+            );
+            assertArrayEquals(
+                    expected,
+                    str.split(Pattern.compile(Pattern.quote(separator))).map(AnsiString::getPlain).toArray(),
+                    separator
+            );
+        }
+        assertArrayEquals(plain.split(","), str.split(',').map(AnsiString::getPlain).toArray());
+        assertArrayEquals(plain.split(""), str.split("").map(AnsiString::getPlain).toArray());
+        assertArrayEquals(new Object[]{""}, AnsiString.ofPlain("").split(',').map(AnsiString::getPlain).toArray());
+        assertArrayEquals(new Object[0], AnsiString.ofPlain(",,").split(',').toArray());
+
+        assertEquals(str.substring(3, 9), str.split(',').findFirst().get().substring(3, 9));
+        assertEquals(str.substring(0, str.length() - 2), str.split(',').collect(AnsiString.joining(",")));
+    }
+
+    @Test
+    void lines() {
+        String[] inputs = {"", "\n", "a", "a\n", "a\r\nb\rc\n\nd", "\r\n\r", "a\n\n"};
+        for (String input : inputs) {
+            AnsiString str = AnsiString.parse(R + input);
+            assertArrayEquals(
+                    new BufferedReader(new StringReader(input)).lines().toArray(),
+                    str.lines().map(AnsiString::getPlain).toArray(),
+                    input
+            );
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            builder.append(i % 7 == 0 ? "\r\n" : "\n").append(R).append(i);
+        }
+        AnsiString text = AnsiString.parse(builder);
+        assertEquals(
+                text.lines().collect(Collectors.toList()),
+                text.lines().parallel().collect(Collectors.toList())
+        );
+        assertEquals(
+                text.lines().collect(AnsiString.joining("\n")),
+                text.lines().parallel().collect(AnsiString.joining(AnsiString.ofPlain("\n")))
+        );
+    }
+
+    @Test
+    void replace() {
+        AnsiString str = AnsiString.parse("key=" + R + "secret" + RES + ", key=" + R + "token");
+        AnsiString mask = AnsiString.Bold.On.overlay("***");
+
+        AnsiString replaced = str.replaceAll(Pattern.compile("(?<=key=)\\w+"), m -> mask);
+        assertEquals(AnsiString.parse("key=").concat(mask).concat(AnsiString.parse(", key=")).concat(mask), replaced);
+
+        replaced = str.replaceAll(Pattern.compile("e"), m -> AnsiString.ofPlain(m.group().toUpperCase()));
+        assertEquals("kEy=sEcrEt, kEy=tokEn", replaced.getPlain());
+        assertEquals(str.stateAt(2), replaced.stateAt(2));
+        assertEquals(0L, replaced.stateAt(5));
+        assertNotEquals(0L, replaced.stateAt(6));
+        assertEquals(str.stateAt(6), replaced.stateAt(6));
+
+        assertEquals(str.getPlain().replaceAll("x*", "-"), str.replaceAll(Pattern.compile("x*"), m -> AnsiString.ofPlain("-")).getPlain());
+        assertSame(str, str.replaceAll(Pattern.compile("x"), m -> mask));
+
+        assertEquals(replaced, str.replace("e", AnsiString.ofPlain("E")));
+        assertEquals(str.getPlain().replace("", "-"), str.replace("", AnsiString.ofPlain("-")).getPlain());
+        assertEquals("-", AnsiString.EMPTY.replace("", AnsiString.ofPlain("-")).getPlain());
+        assertEquals(AnsiString.parse("key=" + R + "s" + RES + ", key=" + R + "t"), str.replace("ecret", AnsiString.EMPTY).replace("oken", AnsiString.EMPTY));
+        assertSame(str, str.replace("x", mask));
+        assertThrows(NullPointerException.class, () -> str.replaceAll(Pattern.compile("e"), m -> null));
+    }
+
+    @Test
+    void format() {
+        Object[][] cases = {
+                {"%s|%5s|%-5s|%.2s|%%|%n", new Object[]{"a", "b", "c", "def"}},
+                {"%d %5d %-5d| %05d %03d %d", new Object[]{1, -2, 3L, -42, 12345, null}},
+                {"%2$s %1$s %<s %s", new Object[]{"x", "y"}},
+                {"no specifiers", new Object[0]},
+        };
+        for (Object[] c : cases) {
+            String pattern = (String) c[0];
+            Object[] args = (Object[]) c[1];
+            assertEquals(String.format(pattern, args), AnsiString.format(AnsiString.ofPlain(pattern), args).getPlain(), pattern);
+        }
+
+        AnsiString red = AnsiString.Color.Red.overlay("red");
+        AnsiString pattern = AnsiString.parse("[" + UND + "%-6s" + DUND + "] %4s " + B + "%d");
+        assertEquals(
+                AnsiString.parse("[")
+                        .concat(AnsiString.Attribute.of(AnsiString.Underlined.On, AnsiString.Color.Red).overlay("red"))
+                        .concat(AnsiString.Underlined.On.overlay("   "))
+                        .concat(AnsiString.parse("]   \u4e2d "))
+                        .concat(AnsiString.Color.Blue.overlay("7")),
+                AnsiString.format(pattern, red, "\u4e2d", 7)
+        );
+        assertEquals(AnsiString.format(pattern, red, "\u4e2d", 7), AnsiString.format(AnsiString.parse(pattern.toString()), red, "\u4e2d", 7));
+
+        assertThrows(MissingFormatArgumentException.class, () -> AnsiString.format(AnsiString.ofPlain("%s %s"), "a"));
+        assertThrows(IllegalFormatConversionException.class, () -> AnsiString.format(AnsiString.ofPlain("%d"), "a"));
+        assertThrows(UnknownFormatConversionException.class, () -> AnsiString.format(AnsiString.ofPlain("%x"), 1));
+        assertThrows(MissingFormatWidthException.class, () -> AnsiString.format(AnsiString.ofPlain("%-s"), 1));
+        assertThrows(IllegalFormatFlagsException.class, () -> AnsiString.format(AnsiString.ofPlain("%05s"), 1));
+    }
+
+    @Test
+    void formattable() {
+        AnsiFormattable level = builder -> builder
+                .append("[", AnsiString.Attribute.empty())
+                .append("WARN", AnsiString.Color.Yellow)
+                .append("]", AnsiString.Attribute.empty());
+        AnsiString expected = AnsiString.parse("[" + Y + "WARN" + DCOL + "]");
+
+        assertEquals(expected, AnsiString.valueOf(level));
+        assertEquals(AnsiString.ofPlain("> ").concat(expected), AnsiString.ofPlain("> ").plus(level));
+        AnsiString prompt = AnsiString.Color.Red.overlay("> ");
+        assertEquals(prompt.concat(expected), prompt.plus(level));
+        assertEquals(prompt.concat(expected), prompt.$plus$plus(level));
+        assertEquals(expected, AnsiString.ofPlain("").plus(level));
+        assertEquals(prompt.concat(prompt), prompt.plus((Object) prompt));
+        assertEquals(prompt.concat(AnsiString.valueOf((Object) null)), prompt.plus((Object) null));
+        assertEquals(expected, new AnsiStringBuilder().append(level).build());
+        assertEquals("null", new AnsiStringBuilder().append((AnsiFormattable) null).build().getPlain());
+
+        assertEquals(AnsiString.markup("<[bold]{}[/]>", expected), AnsiString.markup("<[bold]{}[/]>", level));
+        assertEquals(AnsiString.format(AnsiString.parse(UND + "%s|%8s"), expected, expected),
+                AnsiString.format(AnsiString.parse(UND + "%s|%8s"), level, level));
+    }
+
+    @Test
+    void runs() {
+        AnsiString str = AnsiString.parse("ab" + R + "cd" + G + "e" + RES + "fg" + B + "h");
+        List<String> expected = Arrays.asList(
+                "0-2:" + str.stateAt(0), "2-4:" + str.stateAt(2), "4-5:" + str.stateAt(4), "5-7:0", "7-8:" + str.stateAt(7)
+        );
+
+        List<String> runs = new ArrayList<>();
+        str.forEachRun((start, end, state) -> runs.add(start + "-" + end + ":" + state));
+        assertIterableEquals(expected, runs);
+
+        runs.clear();
+        AnsiString.Run first = null;
+        for (Iterator<AnsiString.Run> it = str.runs(); it.hasNext(); ) {
+            AnsiString.Run run = it.next();
+            if (first == null) {
+                first = run;
+            }
+            assertSame(first, run);
+            runs.add(run.start() + "-" + run.end() + ":" + run.state());
+        }
+        assertIterableEquals(expected, runs);
+
+        assertIterableEquals(
+                expected,
+                StreamSupport.stream(str.runSpliterator(), false).map(run -> run.start() + "-" + run.end() + ":" + run.state()).collect(Collectors.toList())
+        );
+        assertFalse(AnsiString.EMPTY.runs().hasNext());
+
+        LongBuffer view = str.getStatesView();
+        assertTrue(view.isReadOnly());
+        assertEquals(2, str.getStatesOffset());
+        long[] states = str.getStates();
+        for (int i = 0; i < view.remaining(); i++) {
+            assertEquals(states[str.getStatesOffset() + i], view.get(i));
+        }
+        assertEquals(0, AnsiString.ofPlain("abc").getStatesView().remaining());
+
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            builder.append(random.nextInt(4) == 0 ? (random.nextBoolean() ? R : G) : "").append((char) ('a' + i % 26));
+        }
+        AnsiString large = AnsiString.parse(builder);
+        List<AnsiString.Run> sequential = StreamSupport.stream(large.runSpliterator(), false).collect(Collectors.toList());
+        List<AnsiString.Run> parallel = StreamSupport.stream(large.runSpliterator(), true).collect(Collectors.toList());
+        assertEquals(sequential.size(), parallel.size());
+        int position = 0;
+        for (int i = 0; i < sequential.size(); i++) {
+            AnsiString.Run run = parallel.get(i);
+            assertEquals(position, run.start());
+            assertEquals(sequential.get(i).end(), run.end());
+            assertEquals(large.stateAt(run.start()), run.state());
+            if (i > 0) {
+                assertNotEquals(parallel.get(i - 1).state(), run.state());
+            }
+            position = run.end();
+        }
+        assertEquals(large.length(), position);
+    }
+
+    @Test
+    void wrap() {
+        AnsiString str = AnsiString.parse("the " + R + "quick brown" + RES + " fox  jumps\nover\u4e2d\u6587\u5b57 a");
+        List<AnsiString> lines = str.wrap(8);
+        assertIterableEquals(
+                Arrays.asList("the", "quick", "brown", "fox", "jumps", "over\u4e2d\u6587", "\u5b57 a"),
+                lines.stream().map(AnsiString::getPlain).collect(Collectors.toList())
+        );
+        assertEquals(AnsiString.Color.Red.overlay("quick"), lines.get(1));
+        assertEquals(AnsiString.Color.Red.overlay("brown"), lines.get(2));
+
+        assertIterableEquals(
+                Arrays.asList("abcd", "efgh", "ij"),
+                AnsiString.ofPlain("abcdefghij").wrap(4).stream().map(AnsiString::getPlain).collect(Collectors.toList())
+        );
+        assertIterableEquals(
+                Arrays.asList("e\u0301\u0301", "\ud83d\ude00"),
+                AnsiString.ofPlain("e\u0301\u0301\ud83d\ude00").wrap(1).stream().map(AnsiString::getPlain).collect(Collectors.toList())
+        );
+        assertTrue(AnsiString.ofPlain("").wrap(10).isEmpty());
+    }
+
+    @Test
+    void truncateColumns() {
+        AnsiString ellipsis = AnsiString.ofPlain("..");
+        AnsiString str = AnsiString.parse(R + "\u4e2d\u6587abc");
+
+        assertSame(str, str.truncate(7, ellipsis));
+        assertEquals(AnsiString.Color.Red.overlay("\u4e2d\u6587").concat(ellipsis), str.truncate(6, ellipsis));
+        assertEquals(AnsiString.Color.Red.overlay("\u4e2d").concat(ellipsis), str.truncate(5, ellipsis));
+        assertEquals(AnsiString.Color.Red.overlay("\u4e2d").concat(ellipsis), str.truncate(4, ellipsis));
+        assertEquals(ellipsis, str.truncate(3, ellipsis));
+        assertEquals(AnsiString.ofPlain("."), str.truncate(1, ellipsis));
+        assertEquals(AnsiString.Color.Red.overlay("\u4e2d\u6587"), str.truncate(4, AnsiString.EMPTY));
+    }
+
+    @Test
+    void columns() {
+        String[] pieces = {"a", "b", " ", "\u4e2d", "\u0301", "\ud83d\ude00", "\u200b", "\uff21"};
+        int[] widths = {1, 1, 1, 2, 0, 2, 0, 2};
+
+        Random random = new Random(0);
+        for (int round = 0; round < 50; round++) {
+            StringBuilder builder = new StringBuilder();
+            List<int[]> codePoints = new ArrayList<>(); // {index, column, width}
+            int column = 0;
+            final int count = random.nextInt(300);
+            for (int i = 0; i < count; i++) {
+                int p = random.nextInt(round % 2 == 0 ? 3 : pieces.length);
+                codePoints.add(new int[]{builder.length(), column, widths[p]});
+                builder.append(pieces[p]);
+                column += widths[p];
+            }
+
+            AnsiString str = AnsiString.Color.Red.overlay(builder + "!").substring(0, builder.length());
+            assertEquals(column, str.columnWidth());
+            for (int c = 0; c < column; c++) {
+                int expected = -1;
+                for (int[] cp : codePoints) {
+                    if (cp[2] > 0 && cp[1] <= c && c < cp[1] + cp[2]) {
+                        expected = cp[0];
+                    }
+                }
+                assertEquals(expected, str.columnToIndex(c), "column " + c);
+            }
+            assertEquals(str.length(), str.columnToIndex(column));
+
+            for (int k = 0; k < 20; k++) {
+                int begin = random.nextInt(column + 1);
+                int end = begin + random.nextInt(column - begin + 1);
+                AnsiString sub = str.substringByColumns(begin, end);
+                int expectedBegin = str.length();
+                int expectedEnd = 0;
+                boolean baseIncluded = begin == 0;
+                for (int[] cp : codePoints) {
+                    // A zero-width code point is included together with the code point before it
+                    boolean included = cp[2] == 0 ? baseIncluded && cp[1] <= end : cp[1] >= begin && cp[1] + cp[2] <= end;
+                    if (cp[2] > 0) {
+                        baseIncluded = included;
+                    }
+                    if (included) {
+                        expectedBegin = Math.min(expectedBegin, cp[0]);
+                        expectedEnd = Math.max(expectedEnd, cp[0] + Character.charCount(builder.codePointAt(cp[0])));
+                    }
+                }
+                assertEquals(expectedBegin < expectedEnd ? str.substring(expectedBegin, expectedEnd) : AnsiString.ofPlain(""), sub);
+            }
+        }
+
+        AnsiString str = AnsiString.parse("a" + R + "\u4e2d\u6587e\u0301b");
+        assertEquals(7, str.columnWidth());
+        assertEquals(1, str.columnToIndex(1));
+        assertEquals(1, str.columnToIndex(2));
+        assertEquals(2, str.columnToIndex(3));
+        assertEquals(5, str.columnToIndex(6));
+        assertEquals(6, str.columnToIndex(7));
+        assertEquals(str.substring(2, 5), str.substringByColumns(2, 6));
+        assertEquals(str.substring(2, 3), str.substringByColumns(2, 5));
+        assertEquals(str.substring(3, 6), str.substringByColumns(5, 7));
+        assertThrows(IndexOutOfBoundsException.class, () -> str.substringByColumns(0, 8));
+    }
+
+    @Test
+    void attributeComposition() {
+        AnsiString.Attribute redBold = AnsiString.Attribute.of(AnsiString.Color.Red, AnsiString.Bold.On);
+        assertSame(redBold, AnsiString.Attribute.of(AnsiString.Bold.On, AnsiString.Color.Red));
+        assertSame(redBold, AnsiString.Color.Red.concat(AnsiString.Bold.On));
+        assertSame(redBold, AnsiString.Attribute.of(Arrays.asList(AnsiString.Color.Green, AnsiString.Bold.On, AnsiString.Color.Red)));
+        assertEquals(AnsiString.Bold.On.transform(AnsiString.Color.Red.transform(0)), redBold.transform(0));
+
+        assertSame(AnsiString.Color.Blue, AnsiString.Attribute.of(AnsiString.Color.Red, AnsiString.Color.Blue));
+        assertSame(AnsiString.Reset, AnsiString.Attribute.of(AnsiString.Color.Red, AnsiString.Reset));
+        assertSame(AnsiString.Attribute.empty(), AnsiString.Attribute.of(new ArrayList<>()));
+        assertEquals("Attributes[" + AnsiString.Reset + ", " + AnsiString.Color.Red + "]",
+                AnsiString.Attribute.of(AnsiString.Reset, AnsiString.Color.Red).toString());
+
+        // Attributes with the same apply mask are all kept
+        AnsiString.Attribute offs = AnsiString.Attribute.of(AnsiString.Underlined.Off, AnsiString.Reversed.Off);
+        long state = AnsiString.Underlined.On.transform(AnsiString.Reversed.On.transform(0));
+        assertEquals(0L, offs.transform(state));
+    }
+
+    @Test
+    void stateLevel() {
+        long r = AnsiString.Color.Red.transform(0);
+        long rb = AnsiString.Back.Blue.transform(r);
+        long bold = AnsiString.Bold.On.transform(0);
+
+        AnsiString str = AnsiString.ofStates("abcdef", new long[]{r, rb, rb}, 1);
+        assertArrayEquals(new long[]{0, r, rb, rb, 0, 0}, str.getStates());
+        assertThrows(IndexOutOfBoundsException.class, () -> AnsiString.ofStates("abc", new long[]{r, r}, 2));
+
+        assertArrayEquals(new long[]{0, r, r, r, 0, 0}, str.clearCategory(AnsiString.Back.category()).getStates());
+        assertArrayEquals(new long[]{0, 0, rb & ~r, rb & ~r, 0, 0}, str.keepOnly(AnsiString.Back.category()).getStates());
+        assertEquals(AnsiString.ofPlain("abcdef"), str.keepOnly(AnsiString.Bold.category()));
+        assertSame(str, str.clearCategory(AnsiString.Underlined.category()));
+
+        int[] calls = {0};
+        AnsiString mapped = str.mapStates(state -> {
+            calls[0]++;
+            return state | bold;
+        });
+        assertEquals(3, calls[0]);
+        assertArrayEquals(new long[]{bold, r | bold, rb | bold, rb | bold, bold, bold}, mapped.getStates());
+        assertSame(str, str.mapStates(state -> state));
+        assertEquals(AnsiString.ofPlain("abcdef"), mapped.mapStates(state -> 0L));
+    }
+
+    @Test
+    void gradient() {
+        AnsiString str = AnsiString.parse(rgbOps);
+
+        AnsiString expected = str;
+        int[] rgbs = new int[5];
+        for (int i = 0; i < 5; i++) {
+            int red = (255 * i + 2) / 4;
+            int blue = (255 * (4 - i) + 2) / 4;
+            expected = expected.overlay(AnsiString.Back.True(red, 0, blue), 2 + i, 3 + i);
+            rgbs[i] = red << 16 | blue;
+        }
+        assertEquals(expected, str.overlayGradient(AnsiString.Back.category(), 0x0000ff, 0xff0000, 2, 7));
+        assertEquals(expected, str.overlayColors(AnsiString.Back.category(), rgbs, 2));
+
+        AnsiString plain = AnsiString.ofPlain("abc");
+        assertEquals(AnsiString.Color.True(1, 2, 3).overlay("a").concat(AnsiString.ofPlain("bc")),
+                plain.overlayColors(AnsiString.Color.category(), new int[]{0x010203}));
+        assertThrows(IllegalArgumentException.class, () -> plain.overlayGradient(AnsiString.Bold.category(), 0, 0, 0, 3));
+        assertThrows(IllegalArgumentException.class, () -> plain.overlayColors(AnsiString.Color.category(), new int[]{1 << 24}));
+        assertThrows(IndexOutOfBoundsException.class, () -> plain.overlayColors(AnsiString.Color.category(), new int[4]));
+    }
+
+    @Test
+    void downsample() {
+        AnsiString str = AnsiString.Color.True(255, 0, 0).overlay("red")
+                .concat(AnsiString.Back.True(0, 0, 238).overlay("blue"))
+                .overlay(AnsiString.Bold.On, 0, 1);
+
+        assertEquals(str.getEncoded(), str.getEncoded(AnsiString.ColorLevel.TRUE_COLOR));
+        assertEquals(
+                "\u001b[38;5;196m\u001b[1mr" + RES + "\u001b[38;5;196med"
+                        + DCOL + "\u001b[48;5;21mblue" + DBACK,
+                str.getEncoded(AnsiString.ColorLevel.ANSI_256)
+        );
+        assertEquals(
+                "\u001b[91m\u001b[1mr" + RES + "\u001b[91med" + DCOL + "\u001b[44mblue" + DBACK,
+                str.getEncoded(AnsiString.ColorLevel.ANSI_16)
+        );
+        assertEquals("\u001b[1mr" + RES + "edblue", str.getEncoded(AnsiString.ColorLevel.MONOCHROME));
+        assertEquals("redblue", str.getEncoded(AnsiString.ColorLevel.NO_COLOR));
+
+        AnsiString gradient = AnsiString.Color.True(250, 250, 250).overlay("a")
+                .concat(AnsiString.Color.True(255, 255, 255).overlay("b"));
+        assertEquals("\u001b[38;5;231mab" + DCOL, gradient.getEncoded(AnsiString.ColorLevel.ANSI_256));
+    }
+
+    @Test
+    void reuseEncoded() {
+        AnsiString badge = AnsiString.Color.Red.overlay("[ERROR]").overlay(AnsiString.Bold.On);
+        AnsiString time = AnsiString.parse(" 12:00 ");
+        AnsiString message = AnsiString.parse(rgbOps).overlay(AnsiString.Underlined.On, 2, 5);
+        AnsiString[] parts = {badge, time, message};
+
+        String[] expected = new String[parts.length * parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            for (int j = 0; j < parts.length; j++) {
+                AnsiString fresh = AnsiString.parse(parts[i].getEncoded()).concat(AnsiString.parse(parts[j].getEncoded()));
+                expected[i * parts.length + j] = fresh.getEncoded();
+            }
+        }
+
+        for (AnsiString part : parts) {
+            part.getEncoded();
+        }
+        for (int i = 0; i < parts.length; i++) {
+            for (int j = 0; j < parts.length; j++) {
+                assertEquals(expected[i * parts.length + j], parts[i].concat(parts[j]).getEncoded());
+            }
+        }
+
+        AnsiString line = AnsiString.concat(badge, time, message);
+        assertEquals(
+                AnsiString.parse(badge.getEncoded() + time.getEncoded() + message.getEncoded()).getEncoded(),
+                line.getEncoded()
+        );
+        assertEquals(line.getEncoded(), AnsiString.concat(badge, AnsiString.ofPlain(""), time, message).getEncoded());
+        AnsiString notEncoded = AnsiString.Back.Blue.overlay("...");
+        assertEquals(
+                AnsiString.parse(badge.getEncoded() + notEncoded.getEncoded()).getEncoded(),
+                AnsiString.concat(badge, AnsiString.Back.Blue.overlay("...")).getEncoded()
+        );
+
+        line.getEncoded();
+        for (int begin = 0; begin < line.length(); begin++) {
+            for (int end = begin; end <= line.length(); end++) {
+                String fresh = AnsiString.parse(line.getEncoded()).substring(begin, end).getEncoded();
+                assertEquals(fresh, line.substring(begin, end).getEncoded());
+            }
+        }
+    }
+
+    @Test
+    void truncate() {
+        AnsiString str = AnsiString.parse(rgbOps).concat(AnsiString.Color.True(1, 2, 3).overlay("\u00e9\u4e2d\ud83d\ude00!"));
+        assertEquals(str.getEncoded().length(), str.encodedLength());
+        assertEquals(AnsiString.parse(rgbOps).getEncoded().length(), AnsiString.parse(rgbOps).encodedLength());
+
+        for (int budget = 0; budget <= str.encodedLength() + 1; budget++) {
+            AnsiString prefix = str.truncateToEncodedLength(budget);
+            assertTrue(prefix.encodedLength() <= budget);
+            if (prefix.length() < str.length()) {
+                int next = prefix.length() + (Character.isHighSurrogate(str.charAt(prefix.length())) ? 2 : 1);
+                assertTrue(str.substring(0, next).encodedLength() > budget);
+            }
+        }
+
+        int utf8Length = str.getEncoded().getBytes(StandardCharsets.UTF_8).length;
+        for (int budget = 0; budget <= utf8Length + 1; budget++) {
+            AnsiString prefix = str.truncateToUtf8Bytes(budget);
+            assertTrue(prefix.getEncoded().getBytes(StandardCharsets.UTF_8).length <= budget);
+            if (prefix.length() < str.length()) {
+                int next = prefix.length() + (Character.isHighSurrogate(str.charAt(prefix.length())) ? 2 : 1);
+                assertTrue(str.substring(0, next).getEncoded().getBytes(StandardCharsets.UTF_8).length > budget);
+            }
+        }
+        assertSame(str, str.truncateToUtf8Bytes(utf8Length));
+        assertThrows(IllegalArgumentException.class, () -> str.truncateToEncodedLength(-1));
+    }
+
+    @Test
+    void parallelEncode() {
+        StringBuilder raw = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            raw.append(i % 3 == 0 ? R : i % 3 == 1 ? "" : RES).append("line ").append(i).append('\n');
+        }
+        // Runs longer than a chunk, and runs of a single character
+        raw.append(B);
+        for (int i = 0; i < 200000; i++) {
+            raw.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 100000; i++) {
+            raw.append(i % 2 == 0 ? UND : DUND).append((char) ('a' + i % 26));
+        }
+        String expected = AnsiString.parse(raw).getEncoded();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            AnsiString str = AnsiString.parse(raw);
+            assertEquals(expected, str.getEncodedParallel(pool));
+            assertSame(str.getEncodedParallel(pool), str.getEncoded());
+
+            AnsiString shifted = AnsiString.parse(raw.substring(7));
+            assertEquals(AnsiString.parse(raw.substring(7)).getEncoded(), shifted.getEncodedParallel(pool));
+            assertEquals("short", AnsiString.parse("short").getEncodedParallel(pool));
+        } finally {
+            pool.shutdown();
+        }
     }
 }
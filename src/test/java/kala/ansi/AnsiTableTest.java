@@ -0,0 +1,117 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnsiTableTest {
+    private static List<AnsiString> row(Object... cells) {
+        AnsiString[] res = new AnsiString[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            res[i] = cells[i] instanceof AnsiString ? (AnsiString) cells[i] : AnsiString.ofPlain((String) cells[i]);
+        }
+        return Arrays.asList(res);
+    }
+
+    @Test
+    void layout() {
+        AnsiTable table = AnsiTable.builder(3)
+                .align(1, AnsiTable.Alignment.RIGHT)
+                .align(2, AnsiTable.Alignment.CENTER)
+                .build();
+
+        assertEquals(
+                "name   size  kind\n" +
+                        "a.txt     1  file\n" +
+                        "\u4e2d\u6587    100   d\n" +
+                        "b\n",
+                table.render(Arrays.asList(
+                        row("name", "size", "kind"),
+                        row("a.txt", "1", "file"),
+                        row("\u4e2d\u6587", "100", "d"),
+                        row("b")
+                ))
+        );
+
+        assertThrows(IllegalArgumentException.class, () -> AnsiTable.builder(1).build().render(Collections.singletonList(row("a", "b"))));
+    }
+
+    @Test
+    void borders() {
+        AnsiTable table = AnsiTable.builder(2)
+                .border(AnsiTable.Border.ASCII)
+                .headerRows(1)
+                .maxWidth(0, 5)
+                .build();
+
+        assertEquals(
+                "+-------+-----+\n" +
+                        "| key   | val |\n" +
+                        "+-------+-----+\n" +
+                        "| short | 1   |\n" +
+                        "| lo... | 2   |\n" +
+                        "+-------+-----+\n",
+                table.render(Arrays.asList(row("key", "val"), row("short", "1"), row("longer", "2")))
+        );
+
+        assertEquals(
+                "\u250c\u2500\u2500\u2500\u2500\u2510\n" +
+                        "\u2502 \u4e2d \u2502\n" +
+                        "\u2502 a\u2026 \u2502\n" +
+                        "\u2514\u2500\u2500\u2500\u2500\u2518\n",
+                AnsiTable.builder(1)
+                        .border(AnsiTable.Border.UNICODE)
+                        .width(0, 2)
+                        .ellipsis(AnsiString.ofPlain("\u2026"))
+                        .build()
+                        .render(Arrays.asList(row("\u4e2d"), row("abc")))
+        );
+    }
+
+    @Test
+    void styledCells() {
+        AnsiTable table = AnsiTable.builder(2)
+                .border(AnsiTable.Border.UNICODE)
+                .borderStyle(AnsiString.Color.Blue)
+                .align(0, AnsiTable.Alignment.RIGHT)
+                .width(1, 4)
+                .build();
+
+        List<List<AnsiString>> rows = Arrays.asList(
+                row(AnsiString.Bold.On.overlay("bold"), AnsiString.Color.Red.overlay("red text")),
+                row("x", AnsiString.parse("\u001b[4mu\u001b[0mv"))
+        );
+
+        AnsiStringBuilder builder = new AnsiStringBuilder();
+        table.render(rows, builder);
+        AnsiString built = builder.build();
+
+        assertEquals(
+                "\u250c\u2500\u2500\u2500\u2500\u2500\u2500\u252c\u2500\u2500\u2500\u2500\u2500\u2500\u2510\n" +
+                        "\u2502 bold \u2502 r... \u2502\n" +
+                        "\u2502    x \u2502 uv   \u2502\n" +
+                        "\u2514\u2500\u2500\u2500\u2500\u2500\u2500\u2534\u2500\u2500\u2500\u2500\u2500\u2500\u2518\n",
+                built.getPlain()
+        );
+        assertEquals(built, AnsiString.parse(table.render(rows)));
+    }
+}
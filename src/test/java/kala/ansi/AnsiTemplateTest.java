@@ -0,0 +1,72 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnsiTemplateTest {
+    @Test
+    void styles() {
+        assertEquals(
+                AnsiString.Color.Red.overlay("ERROR")
+                        .concat(AnsiString.ofPlain(" "))
+                        .concat(AnsiString.Attribute.of(AnsiString.Bold.On, AnsiString.Back.Blue).overlay("a"))
+                        .concat(AnsiString.Attribute.of(AnsiString.Bold.On, AnsiString.Back.Blue, AnsiString.Color.True(0xff, 0x80, 0)).overlay("b"))
+                        .concat(AnsiString.Attribute.of(AnsiString.Bold.On, AnsiString.Back.Blue).overlay("c")),
+                AnsiTemplate.compile("[red]ERROR[/] [bold on blue]a[#ff8000]b[/]c").render()
+        );
+        assertEquals(
+                AnsiString.ofPlain("[x] {} \\"),
+                AnsiString.markup("\\[x\\] \\{\\} \\\\")
+        );
+        assertEquals(
+                AnsiString.Color.LightBlue.overlay("a").concat(AnsiString.Underlined.On.overlay("b")),
+                AnsiString.markup("[light-blue]a[/][UNDERLINE]b")
+        );
+
+        assertThrows(IllegalArgumentException.class, () -> AnsiTemplate.compile("[red"));
+        assertThrows(IllegalArgumentException.class, () -> AnsiTemplate.compile("[/]"));
+        assertThrows(IllegalArgumentException.class, () -> AnsiTemplate.compile("[purple]"));
+        assertThrows(IllegalArgumentException.class, () -> AnsiTemplate.compile("[bold on]"));
+        assertThrows(IllegalArgumentException.class, () -> AnsiTemplate.compile("[]"));
+    }
+
+    @Test
+    void slots() {
+        AnsiTemplate template = AnsiTemplate.compile("[red]{}[/]: [bold]{}[/]{}");
+        assertEquals(3, template.slotCount());
+        assertSame(template, AnsiTemplate.compile("[red]{}[/]: [bold]{}[/]{}"));
+
+        AnsiString message = AnsiString.parse("x").concat(AnsiString.Color.Green.overlay("y"));
+        assertEquals(
+                AnsiString.Color.Red.overlay("WARN")
+                        .concat(AnsiString.ofPlain(": "))
+                        .concat(AnsiString.Bold.On.overlay("x"))
+                        .concat(AnsiString.Attribute.of(AnsiString.Bold.On, AnsiString.Color.Green).overlay("y"))
+                        .concat(AnsiString.ofPlain("42")),
+                template.render("WARN", message, 42)
+        );
+
+        AnsiStringBuilder builder = new AnsiStringBuilder().append("> ", AnsiString.Attribute.empty());
+        assertEquals(
+                AnsiString.ofPlain("> ").concat(template.render("a", "b", "c")),
+                template.renderTo(builder, "a", "b", "c").build()
+        );
+        assertThrows(IllegalArgumentException.class, () -> template.render("a"));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeferredOverlayTest {
+    @Test
+    void chain() {
+        AnsiString string = AnsiString.parse("Hello " + AnsiStringTest.G + "World");
+        DeferredOverlay empty = string.deferOverlay();
+        assertSame(string, empty.toAnsiString());
+
+        DeferredOverlay bold = empty.overlay(AnsiString.Bold.On, 0, 5);
+        assertEquals(string.overlay(AnsiString.Bold.On, 0, 5), bold.toAnsiString());
+        assertSame(bold.toAnsiString(), bold.toAnsiString());
+        assertSame(bold, bold.overlay(AnsiString.Color.Red, 3, 3));
+
+        DeferredOverlay red = bold.overlay(AnsiString.Color.Red, 3);
+        DeferredOverlay blue = bold.overlay(AnsiString.Back.Blue);
+        assertEquals(string.overlay(AnsiString.Bold.On, 0, 5).overlay(AnsiString.Color.Red, 3), red.toAnsiString());
+        assertEquals(string.overlay(AnsiString.Bold.On, 0, 5).overlay(AnsiString.Back.Blue), blue.toAnsiString());
+        assertEquals(red.toAnsiString().toString(), red.toString());
+        assertEquals(string.length(), red.length());
+        assertEquals(string.getPlain(), red.getPlain());
+
+        assertThrows(NullPointerException.class, () -> empty.overlay(null));
+        assertThrows(IllegalArgumentException.class, () -> empty.overlay(AnsiString.Bold.On, 3, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> empty.overlay(AnsiString.Bold.On, -1, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> empty.overlay(AnsiString.Bold.On, 11, 11));
+        assertThrows(IndexOutOfBoundsException.class, () -> empty.overlay(AnsiString.Bold.On, 0, 12));
+    }
+
+    @Test
+    void random() {
+        Random random = new Random(0);
+        AnsiString.Attribute[] attributes = {
+                AnsiString.Color.Red, AnsiString.Color.Green, AnsiString.Back.Blue, AnsiString.Bold.On,
+                AnsiString.Bold.Off, AnsiString.Underlined.On, AnsiString.Color.Reset, AnsiString.Reset
+        };
+
+        for (int round = 0; round < 100; round++) {
+            AnsiString string = AnsiString.parse(
+                    (round % 2 == 0 ? AnsiStringTest.G : "") + "0123456789abcdefghijklmnopqrstuvwxyz".substring(0, 1 + random.nextInt(36)));
+            AnsiString expected = string;
+            List<AnsiString.Overlayable> overlays = new ArrayList<>();
+            DeferredOverlay deferred = string.deferOverlay();
+            for (int i = 0, n = 1 + random.nextInt(10); i < n; i++) {
+                AnsiString.Attribute attribute = attributes[random.nextInt(attributes.length)];
+                int start = random.nextInt(string.length());
+                int end = start + random.nextInt(string.length() - start + 1);
+                expected = expected.overlay(attribute, start, end);
+                if (start < end) {
+                    overlays.add(attribute.withRange(start, end));
+                }
+                deferred = deferred.overlay(attribute, start, end);
+            }
+            AnsiString result = deferred.toAnsiString();
+            assertEquals(expected, result);
+
+            if (!overlays.isEmpty()) {
+                AnsiString trimmed = string.overlayAll(true, overlays);
+                assertEquals(trimmed.getStatesOffset(), result.getStatesOffset());
+                assertEquals(trimmed.getStatesView(), result.getStatesView());
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HighlighterTest {
+    @Test
+    void keywords() {
+        Highlighter highlighter = Highlighter.builder()
+                .add("ERROR", AnsiString.Color.Red)
+                .add("WARN", AnsiString.Color.Yellow)
+                .add("RR", AnsiString.Underlined.On)
+                .build();
+
+        AnsiString line = AnsiString.parse("ERROR: WARN " + AnsiStringTest.B + "ERR");
+        AnsiString expected = line
+                .overlay(AnsiString.Color.Red, 0, 5)
+                .overlay(AnsiString.Color.Yellow, 7, 11)
+                .overlay(AnsiString.Underlined.On, 1, 3)
+                .overlay(AnsiString.Underlined.On, 13, 15);
+        assertEquals(expected, highlighter.highlight(line));
+
+        AnsiString plain = AnsiString.ofPlain("nothing here");
+        assertSame(plain, highlighter.highlight(plain));
+        assertThrows(IllegalArgumentException.class, () -> Highlighter.builder().add("", AnsiString.Bold.On));
+    }
+
+    @Test
+    void ignoreCase() {
+        Highlighter highlighter = Highlighter.builder()
+                .add("error", AnsiString.Color.Red)
+                .add("\u00e9t\u00e9", AnsiString.Color.Blue)
+                .ignoreCase(true)
+                .build();
+        assertEquals(
+                AnsiString.ofPlain("Error ERROR \u00c9T\u00c9 \u00e9T\u00c9")
+                        .overlay(AnsiString.Color.Red, 0, 5)
+                        .overlay(AnsiString.Color.Red, 6, 11)
+                        .overlay(AnsiString.Color.Blue, 12, 15)
+                        .overlay(AnsiString.Color.Blue, 16, 19),
+                highlighter.highlight(AnsiString.ofPlain("Error ERROR \u00c9T\u00c9 \u00e9T\u00c9"))
+        );
+    }
+
+    @Test
+    void random() {
+        Random random = new Random(0);
+        AnsiString.Attribute[] attributes = {
+                AnsiString.Color.Red, AnsiString.Color.Green, AnsiString.Back.Blue,
+                AnsiString.Bold.On, AnsiString.Underlined.On, AnsiString.Color.Reset
+        };
+
+        for (int round = 0; round < 50; round++) {
+            List<String> keywords = new ArrayList<>();
+            Highlighter.Builder builder = Highlighter.builder();
+            for (int i = 0, n = 1 + random.nextInt(20); i < n; i++) {
+                StringBuilder keyword = new StringBuilder();
+                for (int j = 0, m = 1 + random.nextInt(4); j < m; j++) {
+                    keyword.append("abc\u4e2d".charAt(random.nextInt(4)));
+                }
+                keywords.add(keyword.toString());
+                builder.add(keyword, attributes[i % attributes.length]);
+            }
+
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                text.append("abcd\u4e2d".charAt(random.nextInt(5)));
+            }
+            AnsiString string = AnsiString.parse(AnsiStringTest.G + text);
+
+            AnsiString expected = string;
+            for (int i = 0; i < keywords.size(); i++) {
+                String keyword = keywords.get(i);
+                for (int index = text.indexOf(keyword); index >= 0; index = text.indexOf(keyword, index + 1)) {
+                    expected = expected.overlay(attributes[i % attributes.length], index, index + keyword.length());
+                }
+            }
+            assertEquals(expected, builder.build().highlight(string), keywords.toString());
+        }
+    }
+}
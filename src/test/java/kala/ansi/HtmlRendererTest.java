@@ -0,0 +1,81 @@
+/*
+ * Copyright 2025 Glavo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kala.ansi;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HtmlRendererTest {
+    static final AnsiString STRING = AnsiString.parse("a<b ")
+            .concat(AnsiString.Color.Red.overlay("R&D"))
+            .concat(AnsiString.Bold.On.overlay(AnsiString.Back.True(1, 2, 3).overlay("!")));
+
+    @Test
+    void inlineStyles() {
+        assertEquals(
+                "a&lt;b <span style=\"color:#cd0000;\">R&amp;D</span>"
+                        + "<span style=\"background-color:#010203;font-weight:bold;\">!</span>",
+                HtmlRenderer.inlineStyles().render(STRING)
+        );
+    }
+
+    @Test
+    void classes() {
+        assertEquals(
+                "a&lt;b <span class=\"ansi-fg-red\">R&amp;D</span>"
+                        + "<span class=\"ansi-bold\" style=\"background-color:#010203;\">!</span>",
+                HtmlRenderer.classes("ansi").render(STRING)
+        );
+        assertTrue(HtmlRenderer.classes("ansi").styleSheet().contains(".ansi-fg-red{color:#cd0000}"));
+    }
+
+    @Test
+    void reversed() {
+        AnsiString reversed = AnsiString.Reversed.On.overlay("x")
+                .concat(AnsiString.Attribute.of(AnsiString.Reversed.On, AnsiString.Color.Red).overlay("y"));
+        assertEquals(
+                "<span style=\"color:Canvas;background-color:CanvasText;\">x</span>"
+                        + "<span style=\"color:Canvas;background-color:#cd0000;\">y</span>",
+                HtmlRenderer.inlineStyles().render(reversed)
+        );
+        assertEquals(
+                "<span class=\"ansi-reversed\">x</span><span class=\"ansi-reversed ansi-bg-red\">y</span>",
+                HtmlRenderer.classes("ansi").render(reversed)
+        );
+
+        String styleSheet = HtmlRenderer.classes("ansi").styleSheet();
+        int reversedRule = styleSheet.indexOf(".ansi-reversed{color:Canvas;background-color:CanvasText}");
+        assertTrue(reversedRule >= 0);
+        assertTrue(reversedRule < styleSheet.indexOf(".ansi-bg-red{"));
+        assertTrue(reversedRule < styleSheet.indexOf(".ansi-fg-red{"));
+    }
+
+    @Test
+    void session() throws IOException {
+        AnsiString red = AnsiString.Color.Red.overlay("red");
+        StringBuilder builder = new StringBuilder();
+        try (HtmlRenderer.Session session = HtmlRenderer.inlineStyles().open(builder)) {
+            session.append(red).append(red).append(AnsiString.ofPlain("plain")).append(red);
+        }
+        assertEquals(
+                "<span style=\"color:#cd0000;\">redred</span>plain<span style=\"color:#cd0000;\">red</span>",
+                builder.toString()
+        );
+    }
+}